@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.util.crypt;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Blowfish ECB throughput, one block at a time and with the bulk range methods.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlowfishEngineBenchmark
+{
+	@Param(
+	{
+		"8",
+		"256",
+		"4096"
+	})
+	public int size;
+	
+	private BlowfishEngine _engine;
+	private byte[] _data;
+	
+	@Setup
+	public void setup()
+	{
+		final Random rnd = new Random(0);
+		final byte[] key = new byte[16];
+		rnd.nextBytes(key);
+		_engine = new BlowfishEngine();
+		_engine.init(key);
+		_data = new byte[size];
+		rnd.nextBytes(_data);
+	}
+	
+	@Benchmark
+	public byte[] encryptBlocks()
+	{
+		for (int i = 0; i < size; i += 8)
+		{
+			_engine.encryptBlock(_data, i);
+		}
+		return _data;
+	}
+	
+	@Benchmark
+	public byte[] decryptBlocks()
+	{
+		for (int i = 0; i < size; i += 8)
+		{
+			_engine.decryptBlock(_data, i);
+		}
+		return _data;
+	}
+	
+	@Benchmark
+	public byte[] encryptBulk()
+	{
+		_engine.encrypt(_data, 0, size);
+		return _data;
+	}
+	
+	@Benchmark
+	public byte[] decryptBulk()
+	{
+		_engine.decrypt(_data, 0, size);
+		return _data;
+	}
+	
+	@Benchmark
+	public BlowfishEngine keySchedule()
+	{
+		final BlowfishEngine engine = new BlowfishEngine();
+		engine.init(_data);
+		return engine;
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.util.crypt;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full client packet crypt as done on the selector thread by {@code L2LoginClient}.<br>
+ * Sizes match the usual login packets: small requests, Init, RequestAuthLogin and a large ServerList.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoginCryptBenchmark
+{
+	@Param(
+	{
+		"24",
+		"168",
+		"264",
+		"1016"
+	})
+	public int size;
+	
+	private LoginCrypt _crypt;
+	private byte[] _plain;
+	private byte[] _encrypted;
+	private byte[] _buffer;
+	
+	@Setup
+	public void setup() throws Exception
+	{
+		final Random rnd = new Random(0);
+		final byte[] key = new byte[16];
+		rnd.nextBytes(key);
+		
+		_crypt = new LoginCrypt();
+		_crypt.setCipher(new NewCrypt(key));
+		_plain = new byte[size + 16];
+		rnd.nextBytes(_plain);
+		_buffer = new byte[_plain.length];
+		
+		// the first packet goes through the static key, consume it so the dynamic key is measured
+		_crypt.encrypt(_buffer, 0, size);
+		
+		_encrypted = _plain.clone();
+		final int encryptedSize = _crypt.encrypt(_encrypted, 0, size);
+		if (encryptedSize != (size + 8))
+		{
+			throw new IllegalStateException("Unexpected encrypted size " + encryptedSize);
+		}
+	}
+	
+	@Benchmark
+	public int encrypt() throws Exception
+	{
+		System.arraycopy(_plain, 0, _buffer, 0, size);
+		return _crypt.encrypt(_buffer, 0, size);
+	}
+	
+	@Benchmark
+	public boolean decrypt() throws Exception
+	{
+		System.arraycopy(_encrypted, 0, _buffer, 0, size + 8);
+		return _crypt.decrypt(_buffer, 0, size + 8);
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.util.crypt;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Checksum and initial XOR pass kernels of {@link NewCrypt}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NewCryptBenchmark
+{
+	@Param(
+	{
+		"32",
+		"176",
+		"280",
+		"1024"
+	})
+	public int size;
+	
+	private byte[] _data;
+	private int _key;
+	
+	@Setup
+	public void setup()
+	{
+		final Random rnd = new Random(0);
+		_data = new byte[size];
+		rnd.nextBytes(_data);
+		_key = rnd.nextInt();
+	}
+	
+	@Benchmark
+	public boolean verifyChecksum()
+	{
+		return NewCrypt.verifyChecksum(_data, 0, size);
+	}
+	
+	@Benchmark
+	public byte[] appendChecksum()
+	{
+		NewCrypt.appendChecksum(_data, 0, size);
+		return _data;
+	}
+	
+	@Benchmark
+	public byte[] encXORPass()
+	{
+		NewCrypt.encXORPass(_data, 0, size, _key);
+		return _data;
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.util.crypt;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * RSA work of the login handshake: scrambling the modulus sent in Init and decrypting the credentials blocks of RequestAuthLogin.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RSABenchmark
+{
+	private KeyPair _pair;
+	private byte[] _raw1;
+	private byte[] _raw2;
+	
+	@Setup
+	public void setup() throws Exception
+	{
+		final KeyPairGenerator keygen = KeyPairGenerator.getInstance("RSA");
+		keygen.initialize(new RSAKeyGenParameterSpec(1024, RSAKeyGenParameterSpec.F4));
+		_pair = keygen.generateKeyPair();
+		
+		// the client encrypts the blocks with the public key without padding
+		final Random rnd = new Random(0);
+		final Cipher rsaCipher = Cipher.getInstance("RSA/ECB/nopadding");
+		rsaCipher.init(Cipher.ENCRYPT_MODE, (RSAPublicKey) _pair.getPublic());
+		final byte[] block = new byte[0x80];
+		rnd.nextBytes(block);
+		block[0] = 0;
+		_raw1 = rsaCipher.doFinal(block);
+		rnd.nextBytes(block);
+		block[0] = 0;
+		_raw2 = rsaCipher.doFinal(block);
+	}
+	
+	@Benchmark
+	public ScrambledKeyPair scrambledKeyPair()
+	{
+		return new ScrambledKeyPair(_pair);
+	}
+	
+	/**
+	 * Same steps as {@code RequestAuthLogin.run()} with the new auth method (two blocks).
+	 * @return the decrypted password block
+	 * @throws Exception if the cipher fails
+	 */
+	@Benchmark
+	public byte[] requestAuthLoginDecrypt() throws Exception
+	{
+		final Cipher rsaCipher = Cipher.getInstance("RSA/ECB/nopadding");
+		rsaCipher.init(Cipher.DECRYPT_MODE, (RSAPrivateKey) _pair.getPrivate());
+		rsaCipher.doFinal(_raw1, 0x00, 0x80);
+		return rsaCipher.doFinal(_raw2, 0x00, 0x80);
+	}
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.login;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.l2jserver.login.model.data.AccountInfo;
+import com.l2jserver.util.db.L2DatabaseFactory;
+
+/**
+ * Keeps the account info of recently logged accounts, so reconnecting clients don't hit the database again.<br>
+ * Entries expire after {@link Config#ACCOUNT_CACHE_EXPIRE} seconds and the oldest ones are dropped once {@link Config#ACCOUNT_CACHE_SIZE} is reached.<br>
+ * Every change made to an account through the login server must {@link #invalidate(String)} it, except the last server which is updated in place. Changes made by external tools are seen once the entry expires.<br>
+ * While the database is down, expired entries are still used if {@link Config#DEGRADED_MODE_CACHED_LOGIN} is enabled.<br>
+ * Accounts under a temporary ban are never cached, their access level depends on the time of the query.
+ */
+public final class AccountCache
+{
+	private static final Logger _log = Logger.getLogger(AccountCache.class.getName());
+	
+	/** Time an invalidation is remembered, longer than any account lookup, in milliseconds. */
+	private static final long INVALIDATION_TTL = 300000;
+	
+	private static final String RECENT_ACCOUNTS_SELECT = "SELECT login, password, IF(? > value OR value IS NULL, accessLevel, -1) AS accessLevel, lastServer FROM accounts LEFT JOIN (account_data) ON (account_data.account_name=accounts.login AND account_data.var=\"ban_temp\") ORDER BY lastactive DESC LIMIT ?";
+	
+	private final Map<String, Entry> _entries = new ConcurrentHashMap<>();
+	/** Entries in insertion order, which is also expiration order. May hold entries already replaced or removed from the map. */
+	private final Queue<Entry> _order = new ConcurrentLinkedQueue<>();
+	/** Bumped by every invalidation, orders the invalidations and the lookups. */
+	private final AtomicLong _version = new AtomicLong();
+	/** Accounts invalidated recently with the version of the invalidation, so a lookup of the account racing with the change doesn't cache the old values. */
+	private final Map<String, Invalidation> _invalidations = new ConcurrentHashMap<>();
+	/** Accounts changed recently with the time of the change, read from the primary until the replicas caught up. */
+	private final Map<String, Long> _recentChanges = new ConcurrentHashMap<>();
+	
+	private final LongAdder _hits = new LongAdder();
+	private final LongAdder _misses = new LongAdder();
+	
+	protected AccountCache()
+	{
+		if (Config.ACCOUNT_CACHE && (Config.ACCOUNT_CACHE_PREWARM > 0))
+		{
+			prewarm(Math.min(Config.ACCOUNT_CACHE_PREWARM, Config.ACCOUNT_CACHE_SIZE));
+		}
+	}
+	
+	/**
+	 * Loads the most recently active accounts, streaming the rows instead of loading the whole result in memory.
+	 * @param count the maximum number of accounts to load
+	 */
+	private void prewarm(int count)
+	{
+		final long version = getVersion();
+		int loaded = 0;
+		try (Connection con = L2DatabaseFactory.getInstance().getReadConnection();
+			PreparedStatement ps = con.prepareStatement(RECENT_ACCOUNTS_SELECT, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY))
+		{
+			// MySQL Connector/J streams the rows with this fetch size
+			ps.setFetchSize(Integer.MIN_VALUE);
+			ps.setString(1, Long.toString(System.currentTimeMillis()));
+			ps.setInt(2, count);
+			try (ResultSet rset = ps.executeQuery())
+			{
+				while (rset.next())
+				{
+					final AccountInfo info = new AccountInfo(rset.getString("login"), rset.getString("password"), rset.getInt("accessLevel"), rset.getInt("lastServer"));
+					if (put(info, version))
+					{
+						loaded++;
+					}
+				}
+			}
+		}
+		catch (SQLException e)
+		{
+			_log.log(Level.WARNING, "Could not pre-warm the account cache: " + e.getMessage(), e);
+		}
+		_log.info("Account cache pre-warmed with " + loaded + " accounts.");
+	}
+	
+	/**
+	 * @param login the account name
+	 * @return the cached account info, or null if it's not cached or expired
+	 */
+	public AccountInfo get(String login)
+	{
+		if (!Config.ACCOUNT_CACHE)
+		{
+			return null;
+		}
+		
+		final Entry entry = _entries.get(login.toLowerCase());
+		if ((entry == null) || (entry.isExpired(System.currentTimeMillis()) && !isDegraded()))
+		{
+			_misses.increment();
+			return null;
+		}
+		_hits.increment();
+		return entry._info;
+	}
+	
+	/**
+	 * @return true if the database is down and expired entries are used rather than refusing every login
+	 */
+	private static boolean isDegraded()
+	{
+		return Config.DEGRADED_MODE_CACHED_LOGIN && !L2DatabaseFactory.isAvailable();
+	}
+	
+	/**
+	 * @return the value to give to {@link #put(AccountInfo, long)} for an account info read after this call
+	 */
+	public long getVersion()
+	{
+		return _version.get();
+	}
+	
+	/**
+	 * Caches the account info, unless the account was invalidated since it was read.
+	 * @param info the account info, as read from the database
+	 * @param version the value of {@link #getVersion()} before the account info was read
+	 * @return true if the account info was cached
+	 */
+	public boolean put(AccountInfo info, long version)
+	{
+		if (!Config.ACCOUNT_CACHE || (info.getAccessLevel() < 0))
+		{
+			return false;
+		}
+		
+		// the database may spell the name with uppercase letters, clients never do
+		final String name = info.getLogin().toLowerCase();
+		final long now = System.currentTimeMillis();
+		final Entry entry = new Entry(info, now + (Config.ACCOUNT_CACHE_EXPIRE * 1000L));
+		_entries.put(name, entry);
+		final Invalidation invalidation = _invalidations.get(name);
+		if ((invalidation != null) && (invalidation._version > version))
+		{
+			// the account changed meanwhile, the values may be outdated
+			_entries.remove(name, entry);
+			return false;
+		}
+		_order.add(entry);
+		evict(now);
+		return true;
+	}
+	
+	/**
+	 * Drops the cached account info, must be called after any change to the account.
+	 * @param login the account name
+	 */
+	public void invalidate(String login)
+	{
+		final String name = login.toLowerCase();
+		final long now = System.currentTimeMillis();
+		if (_invalidations.size() >= 1024)
+		{
+			_invalidations.values().removeIf(invalidation -> (now - invalidation._time) > INVALIDATION_TTL);
+		}
+		// recorded before the entry is dropped, a racing put either sees it or is dropped too
+		final Invalidation invalidation = new Invalidation(_version.incrementAndGet(), now);
+		_invalidations.merge(name, invalidation, (current, added) -> current._version > added._version ? current : added);
+		_entries.remove(name);
+		
+		if (hasReplicas())
+		{
+			if (_recentChanges.size() >= 1024)
+			{
+				_recentChanges.values().removeIf(time -> (now - time) > getReplicaDelay());
+			}
+			_recentChanges.put(name, now);
+		}
+	}
+	
+	/**
+	 * Updates the last server of the cached account in place, the account stays cached.
+	 * @param login the account name
+	 * @param serverId the id of the last game server the account went to
+	 */
+	public void updateLastServer(String login, int serverId)
+	{
+		_entries.computeIfPresent(login.toLowerCase(), (name, entry) ->
+		{
+			entry._info = entry._info.withLastServer(serverId);
+			return entry;
+		});
+	}
+	
+	/**
+	 * @param login the account name
+	 * @return true if the account changed recently and the replicas may not have the change yet
+	 */
+	public boolean isRecentlyChanged(String login)
+	{
+		final Long time = _recentChanges.get(login.toLowerCase());
+		if (time == null)
+		{
+			return false;
+		}
+		if ((System.currentTimeMillis() - time) > getReplicaDelay())
+		{
+			_recentChanges.remove(login.toLowerCase(), time);
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * @return the longest time a change may take to reach a used replica, in milliseconds
+	 */
+	private static long getReplicaDelay()
+	{
+		return ((Config.REPLICA_MAX_LAG + 1) * 1000L) + Config.REPLICA_CHECK_INTERVAL;
+	}
+	
+	private static boolean hasReplicas()
+	{
+		try
+		{
+			return L2DatabaseFactory.getInstance().hasReplicas();
+		}
+		catch (SQLException e)
+		{
+			return false;
+		}
+	}
+	
+	private void evict(long now)
+	{
+		Entry eldest;
+		while ((eldest = _order.peek()) != null)
+		{
+			final String name = eldest._info.getLogin().toLowerCase();
+			final boolean stale = _entries.get(name) != eldest;
+			if (!stale && !eldest.isExpired(now) && (_entries.size() <= Config.ACCOUNT_CACHE_SIZE))
+			{
+				break;
+			}
+			
+			if (_order.remove(eldest) && !stale)
+			{
+				_entries.remove(name, eldest);
+			}
+		}
+	}
+	
+	public int size()
+	{
+		return _entries.size();
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "Account cache: " + (Config.ACCOUNT_CACHE ? "enabled" : "disabled") + ", " + size() + "/" + Config.ACCOUNT_CACHE_SIZE + " accounts, hits " + _hits.sum() + ", misses " + _misses.sum();
+	}
+	
+	private static final class Entry
+	{
+		protected volatile AccountInfo _info;
+		private final long _expireTime;
+		
+		public Entry(AccountInfo info, long expireTime)
+		{
+			_info = info;
+			_expireTime = expireTime;
+		}
+		
+		public boolean isExpired(long now)
+		{
+			return now >= _expireTime;
+		}
+	}
+	
+	private static final class Invalidation
+	{
+		protected final long _version;
+		protected final long _time;
+		
+		public Invalidation(long version, long time)
+		{
+			_version = version;
+			_time = time;
+		}
+	}
+	
+	public static AccountCache getInstance()
+	{
+		return SingletonHolder._instance;
+	}
+	
+	private static class SingletonHolder
+	{
+		protected static final AccountCache _instance = new AccountCache();
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.login;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.l2jserver.util.BloomFilter;
+import com.l2jserver.util.db.L2DatabaseFactory;
+
+/**
+ * Knows which account names exist, so logins for unknown accounts don't have to query the database.<br>
+ * The names are kept in a {@link BloomFilter} loaded from the accounts table in the background at startup and reloaded every {@link Config#ACCOUNT_FILTER_RELOAD_INTERVAL} minutes, to pick up accounts created by external tools.<br>
+ * A name not in the filter is still looked up, or auto created, at most {@link Config#ACCOUNT_FILTER_MISS_RATE} times per second, above that the login is refused without touching the database.
+ */
+public final class AccountFilter implements Runnable
+{
+	private static final Logger _log = Logger.getLogger(AccountFilter.class.getName());
+	
+	private static final String ACCOUNT_LOGINS_SELECT = "SELECT login FROM accounts";
+	
+	/** Null until the first load is done, every login is allowed meanwhile. */
+	private volatile BloomFilter _filter;
+	/** The filter being loaded, new accounts are added to it too. */
+	private volatile BloomFilter _loading;
+	
+	private long _missWindowStart;
+	private int _missWindowCount;
+	
+	private final LongAdder _allowedMisses = new LongAdder();
+	private final LongAdder _refusedMisses = new LongAdder();
+	
+	protected AccountFilter()
+	{
+		if (Config.ACCOUNT_FILTER)
+		{
+			final Thread loader = new Thread(this, "AccountFilter");
+			loader.setDaemon(true);
+			loader.start();
+		}
+	}
+	
+	@Override
+	public void run()
+	{
+		while (true)
+		{
+			load();
+			if (Config.ACCOUNT_FILTER_RELOAD_INTERVAL <= 0)
+			{
+				return;
+			}
+			
+			try
+			{
+				Thread.sleep(Config.ACCOUNT_FILTER_RELOAD_INTERVAL * 60000L);
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+		}
+	}
+	
+	private void load()
+	{
+		final long start = System.currentTimeMillis();
+		final BloomFilter filter = new BloomFilter(Config.ACCOUNT_FILTER_EXPECTED_ACCOUNTS, Config.ACCOUNT_FILTER_FALSE_POSITIVE_RATE);
+		_loading = filter;
+		int count = 0;
+		try (Connection con = L2DatabaseFactory.getInstance().getReadConnection();
+			PreparedStatement ps = con.prepareStatement(ACCOUNT_LOGINS_SELECT, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY))
+		{
+			// MySQL Connector/J streams the rows with this fetch size
+			ps.setFetchSize(Integer.MIN_VALUE);
+			try (ResultSet rset = ps.executeQuery())
+			{
+				while (rset.next())
+				{
+					filter.add(rset.getString(1).toLowerCase());
+					count++;
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			_log.log(Level.WARNING, "Could not load the account filter: " + e.getMessage(), e);
+			_loading = null;
+			return;
+		}
+		
+		// published before the loading filter is dropped, see add()
+		_filter = filter;
+		_loading = null;
+		_log.info("Account filter loaded " + count + " accounts in " + (System.currentTimeMillis() - start) + " ms, " + (filter.getSize() / 1024) + " KB.");
+		if (count > Config.ACCOUNT_FILTER_EXPECTED_ACCOUNTS)
+		{
+			_log.warning("There are more accounts than AccountFilterExpectedAccounts, the account filter lets more unknown accounts through.");
+		}
+	}
+	
+	/**
+	 * @param login the account name
+	 * @return true if the account may exist and has to be looked up, false if it certainly doesn't exist and there were already too many lookups for unknown accounts
+	 */
+	public boolean allowLookup(String login)
+	{
+		final BloomFilter filter = _filter;
+		if (!Config.ACCOUNT_FILTER || (filter == null) || filter.mightContain(login.toLowerCase()))
+		{
+			return true;
+		}
+		
+		if (tryMiss())
+		{
+			_allowedMisses.increment();
+			return true;
+		}
+		_refusedMisses.increment();
+		return false;
+	}
+	
+	private synchronized boolean tryMiss()
+	{
+		final long now = System.currentTimeMillis();
+		if ((now - _missWindowStart) >= 1000)
+		{
+			_missWindowStart = now;
+			_missWindowCount = 0;
+		}
+		if (_missWindowCount >= Config.ACCOUNT_FILTER_MISS_RATE)
+		{
+			return false;
+		}
+		_missWindowCount++;
+		return true;
+	}
+	
+	/**
+	 * Registers an account found in the database or just created.
+	 * @param login the account name
+	 */
+	public void add(String login)
+	{
+		final String name = login.toLowerCase();
+		// read before the filter: once the loading filter is dropped, the filter read next is the new one
+		final BloomFilter loading = _loading;
+		if (loading != null)
+		{
+			loading.add(name);
+		}
+		final BloomFilter filter = _filter;
+		if (filter != null)
+		{
+			filter.add(name);
+		}
+	}
+	
+	@Override
+	public String toString()
+	{
+		final BloomFilter filter = _filter;
+		return "Account filter: " + (!Config.ACCOUNT_FILTER ? "disabled" : (filter == null ? "loading" : (filter.getSize() / 1024) + " KB")) + ", unknown accounts looked up " + _allowedMisses.sum() + ", refused " + _refusedMisses.sum();
+	}
+	
+	public static AccountFilter getInstance()
+	{
+		return SingletonHolder._instance;
+	}
+	
+	private static class SingletonHolder
+	{
+		protected static final AccountFilter _instance = new AccountFilter();
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.login;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.l2jserver.login.model.data.AccountInfo;
+import com.l2jserver.util.db.L2DatabaseFactory;
+
+/**
+ * Groups the account lookups of concurrent logins into a single {@code WHERE login IN (...)} query.<br>
+ * At most {@link Config#ACCOUNT_LOOKUP_CONCURRENCY} queries, half the database connections by default, run at the same time. While they are running, new lookups wait in a queue and the next query takes all of them, up to {@link Config#ACCOUNT_LOOKUP_BATCH_SIZE}.<br>
+ * So there is no waiting window: on a quiet server every lookup runs right away on its own, and the batches grow with the load.<br>
+ * The queries run on the account stage of the {@link AuthPipeline}, or on the calling thread when the pipeline is not used.
+ */
+public final class AccountLookupBatcher
+{
+	private static final String USER_INFO_SELECT = "SELECT login, password, IF(? > value OR value IS NULL, accessLevel, -1) AS accessLevel, lastServer FROM accounts LEFT JOIN (account_data) ON (account_data.account_name=accounts.login AND account_data.var=\"ban_temp\") WHERE login IN (";
+	
+	private final Queue<Lookup> _queue = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger _runningQueries = new AtomicInteger();
+	private final int _concurrency;
+	
+	private final LongAdder _lookups = new LongAdder();
+	private final LongAdder _queries = new LongAdder();
+	
+	protected AccountLookupBatcher()
+	{
+		_concurrency = Config.ACCOUNT_LOOKUP_CONCURRENCY > 0 ? Config.ACCOUNT_LOOKUP_CONCURRENCY : Math.max(1, Config.DATABASE_MAX_CONNECTIONS / 2);
+	}
+	
+	/**
+	 * Queues the lookup of the account.
+	 * @param login the account name
+	 * @return the account info once the query that includes it is done, null if the account doesn't exist
+	 */
+	public CompletableFuture<AccountInfo> lookup(String login)
+	{
+		final Lookup lookup = new Lookup(login.toLowerCase());
+		_queue.add(lookup);
+		_lookups.increment();
+		
+		final AuthPipeline pipeline = AuthPipeline.getInstance();
+		if (!pipeline.isEnabled())
+		{
+			runQueries();
+		}
+		else if (!pipeline.getAccountStage().execute(this::runQueries) && _queue.remove(lookup))
+		{
+			// no query is going to take it
+			lookup._result.completeExceptionally(new RejectedExecutionException("Account stage is saturated."));
+		}
+		return lookup._result;
+	}
+	
+	/**
+	 * Runs queries for the queued lookups as long as there is a free query slot and lookups are waiting.<br>
+	 * A lookup queued while every slot is taken is not lost: the slot is released before the queue is checked again.
+	 */
+	private void runQueries()
+	{
+		while (!_queue.isEmpty())
+		{
+			if (_runningQueries.incrementAndGet() > _concurrency)
+			{
+				// the running queries will take the queued lookups when they are done
+				_runningQueries.decrementAndGet();
+				return;
+			}
+			
+			try
+			{
+				final List<Lookup> batch = new ArrayList<>();
+				Lookup next;
+				while ((batch.size() < Config.ACCOUNT_LOOKUP_BATCH_SIZE) && ((next = _queue.poll()) != null))
+				{
+					batch.add(next);
+				}
+				if (!batch.isEmpty())
+				{
+					query(batch);
+				}
+			}
+			finally
+			{
+				_runningQueries.decrementAndGet();
+			}
+		}
+	}
+	
+	private void query(List<Lookup> batch)
+	{
+		final Map<String, List<Lookup>> lookupsByLogin = new HashMap<>();
+		boolean readPrimary = false;
+		for (Lookup lookup : batch)
+		{
+			lookupsByLogin.computeIfAbsent(lookup._login, (k) -> new ArrayList<>(1)).add(lookup);
+			readPrimary |= AccountCache.getInstance().isRecentlyChanged(lookup._login);
+		}
+		
+		final StringBuilder sql = new StringBuilder(USER_INFO_SELECT.length() + (lookupsByLogin.size() * 2) + 32);
+		sql.append(USER_INFO_SELECT);
+		for (int i = 0; i < lookupsByLogin.size(); i++)
+		{
+			sql.append(i == 0 ? "?" : ",?");
+		}
+		sql.append(')');
+		
+		_queries.increment();
+		final Map<String, AccountInfo> accounts = new HashMap<>();
+		// a replica may not have the latest changes of these accounts yet
+		try (Connection con = readPrimary ? L2DatabaseFactory.getInstance().getConnection() : L2DatabaseFactory.getInstance().getReadConnection();
+			PreparedStatement ps = con.prepareStatement(sql.toString()))
+		{
+			int index = 1;
+			ps.setString(index++, Long.toString(System.currentTimeMillis()));
+			for (String login : lookupsByLogin.keySet())
+			{
+				ps.setString(index++, login);
+			}
+			
+			try (ResultSet rset = ps.executeQuery())
+			{
+				while (rset.next())
+				{
+					final AccountInfo info = new AccountInfo(rset.getString("login"), rset.getString("password"), rset.getInt("accessLevel"), rset.getInt("lastServer"));
+					// IN matches regardless of case, lookups are keyed by the lowercased name
+					accounts.put(info.getLogin().toLowerCase(), info);
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			for (Lookup lookup : batch)
+			{
+				lookup._result.completeExceptionally(e);
+			}
+			return;
+		}
+		
+		for (Lookup lookup : batch)
+		{
+			lookup._result.complete(accounts.get(lookup._login));
+		}
+	}
+	
+	@Override
+	public String toString()
+	{
+		final long queries = _queries.sum();
+		return "Account lookups: " + _lookups.sum() + " in " + queries + " queries" + (queries > 0 ? String.format(" (%.2f per query)", (double) _lookups.sum() / queries) : "") + ", " + _queue.size() + " waiting";
+	}
+	
+	private static final class Lookup
+	{
+		protected final String _login;
+		protected final CompletableFuture<AccountInfo> _result = new CompletableFuture<>();
+		
+		public Lookup(String login)
+		{
+			_login = login;
+		}
+	}
+	
+	public static AccountLookupBatcher getInstance()
+	{
+		return SingletonHolder._instance;
+	}
+	
+	private static class SingletonHolder
+	{
+		protected static final AccountLookupBatcher _instance = new AccountLookupBatcher();
+	}
+}
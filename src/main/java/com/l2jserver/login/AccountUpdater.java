@@ -0,0 +1,389 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.login;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.l2jserver.util.db.L2DatabaseFactory;
+
+/**
+ * Write-behind queue for the account bookkeeping columns: last activity, last server and tracert addresses.<br>
+ * None of them take part in the login decision, so instead of updating the row on the login path the changes are kept per account, the newest value of each column winning, and flushed in JDBC batches every {@link Config#ACCOUNT_UPDATE_FLUSH_INTERVAL} milliseconds or as soon as {@link Config#ACCOUNT_UPDATE_BATCH_SIZE} accounts are pending.<br>
+ * Pending changes are flushed on shutdown, and put back in the queue when a flush fails.<br>
+ * With write-behind disabled each change is stored right away by the calling thread, without taking the lock of {@link #flush()}. Only a change that fails to be stored is queued, for the next flush.
+ */
+public final class AccountUpdater implements Runnable
+{
+	private static final Logger _log = Logger.getLogger(AccountUpdater.class.getName());
+	
+	private static final String ACCOUNT_INFO_UPDATE = "UPDATE accounts SET lastactive = ?, lastIP = ? WHERE login = ?";
+	private static final String ACCOUNT_LAST_SERVER_UPDATE = "UPDATE accounts SET lastServer = ? WHERE login = ?";
+	private static final String ACCOUNT_IPS_UPDATE = "UPDATE accounts SET pcIp = ?, hop1 = ?, hop2 = ?, hop3 = ?, hop4 = ? WHERE login = ?";
+	
+	private final Map<String, PendingUpdate> _pending = new ConcurrentHashMap<>();
+	private final Object _flushSignal = new Object();
+	private final Thread _flusher;
+	private volatile boolean _running = true;
+	
+	private final LongAdder _flushedUpdates = new LongAdder();
+	private final LongAdder _failedFlushes = new LongAdder();
+	private volatile long _lastFlushDuration;
+	
+	protected AccountUpdater()
+	{
+		_flusher = new Thread(this, "AccountUpdater");
+		_flusher.setDaemon(true);
+		_flusher.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "AccountUpdaterShutdown"));
+	}
+	
+	/**
+	 * @param login the account name
+	 * @param lastActive the login time
+	 * @param lastIP the client address
+	 */
+	public void setLastActive(String login, long lastActive, String lastIP)
+	{
+		queue(login, (update) ->
+		{
+			update._lastActive = lastActive;
+			update._lastIP = lastIP;
+		});
+	}
+	
+	/**
+	 * @param login the account name
+	 * @param serverId the id of the last game server the account went to
+	 */
+	public void setLastServer(String login, int serverId)
+	{
+		queue(login, (update) -> update._lastServer = serverId);
+	}
+	
+	/**
+	 * @param login the account name
+	 * @param pcIp the client address as seen by the client
+	 * @param hop1 first hop
+	 * @param hop2 second hop
+	 * @param hop3 third hop
+	 * @param hop4 fourth hop
+	 */
+	public void setLastTracert(String login, String pcIp, String hop1, String hop2, String hop3, String hop4)
+	{
+		final String[] tracert =
+		{
+			pcIp,
+			hop1,
+			hop2,
+			hop3,
+			hop4
+		};
+		queue(login, (update) -> update._tracert = tracert);
+	}
+	
+	private void queue(String login, Change change)
+	{
+		if (!Config.ACCOUNT_UPDATE_WRITE_BEHIND)
+		{
+			final PendingUpdate update = new PendingUpdate(login, System.currentTimeMillis());
+			change.apply(update);
+			store(update);
+			return;
+		}
+		
+		_pending.compute(login, (key, update) ->
+		{
+			if (update == null)
+			{
+				update = new PendingUpdate(key, System.currentTimeMillis());
+			}
+			change.apply(update);
+			return update;
+		});
+		
+		if (_pending.size() >= Config.ACCOUNT_UPDATE_BATCH_SIZE)
+		{
+			synchronized (_flushSignal)
+			{
+				_flushSignal.notify();
+			}
+		}
+	}
+	
+	@Override
+	public void run()
+	{
+		while (_running)
+		{
+			synchronized (_flushSignal)
+			{
+				try
+				{
+					if (_pending.size() < Config.ACCOUNT_UPDATE_BATCH_SIZE)
+					{
+						_flushSignal.wait(Config.ACCOUNT_UPDATE_FLUSH_INTERVAL);
+					}
+				}
+				catch (InterruptedException e)
+				{
+					return;
+				}
+			}
+			flush();
+		}
+	}
+	
+	/**
+	 * Writes all pending changes to the database.
+	 */
+	public synchronized void flush()
+	{
+		if (_pending.isEmpty())
+		{
+			return;
+		}
+		
+		final List<PendingUpdate> updates = new ArrayList<>(_pending.size());
+		for (String login : _pending.keySet())
+		{
+			final PendingUpdate update = _pending.remove(login);
+			if (update != null)
+			{
+				updates.add(update);
+			}
+		}
+		
+		final long start = System.currentTimeMillis();
+		try (Connection con = L2DatabaseFactory.getInstance().getConnection())
+		{
+			con.setAutoCommit(false);
+			try (PreparedStatement info = con.prepareStatement(ACCOUNT_INFO_UPDATE);
+				PreparedStatement server = con.prepareStatement(ACCOUNT_LAST_SERVER_UPDATE);
+				PreparedStatement ips = con.prepareStatement(ACCOUNT_IPS_UPDATE))
+			{
+				for (PendingUpdate update : updates)
+				{
+					update.addBatch(info, server, ips);
+				}
+				info.executeBatch();
+				server.executeBatch();
+				ips.executeBatch();
+				con.commit();
+			}
+			catch (SQLException e)
+			{
+				con.rollback();
+				throw e;
+			}
+			finally
+			{
+				con.setAutoCommit(true);
+			}
+			_flushedUpdates.add(updates.size());
+		}
+		catch (Exception e)
+		{
+			_failedFlushes.increment();
+			_log.log(Level.WARNING, "Could not store " + updates.size() + " account updates, will retry: " + e.getMessage(), e);
+			for (PendingUpdate update : updates)
+			{
+				// keep whatever was queued meanwhile, it is newer
+				_pending.merge(update._login, update, (newer, older) -> newer.mergeOlder(older));
+			}
+		}
+		_lastFlushDuration = System.currentTimeMillis() - start;
+	}
+	
+	/**
+	 * Stores the changes of one account with single updates.
+	 * @param update the changes
+	 */
+	private void store(PendingUpdate update)
+	{
+		try (Connection con = L2DatabaseFactory.getInstance().getConnection())
+		{
+			update.execute(con);
+			_flushedUpdates.increment();
+		}
+		catch (Exception e)
+		{
+			_failedFlushes.increment();
+			_log.log(Level.WARNING, "Could not store the account update of " + update._login + ", will retry: " + e.getMessage(), e);
+			_pending.merge(update._login, update, (newer, older) -> newer.mergeOlder(older));
+		}
+	}
+	
+	/**
+	 * Stops the flusher thread and stores the pending changes.
+	 */
+	public void shutdown()
+	{
+		_running = false;
+		_flusher.interrupt();
+		flush();
+	}
+	
+	public int getPendingCount()
+	{
+		return _pending.size();
+	}
+	
+	/**
+	 * @return the age in milliseconds of the oldest change not yet stored, 0 if there is none
+	 */
+	public long getLag()
+	{
+		final long now = System.currentTimeMillis();
+		long lag = 0;
+		for (PendingUpdate update : _pending.values())
+		{
+			lag = Math.max(lag, now - update._queueTime);
+		}
+		return lag;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "Account updates: " + getPendingCount() + " pending, lag " + getLag() + " ms, " + _flushedUpdates.sum() + " stored, " + _failedFlushes.sum() + " failed flushes, last flush took " + _lastFlushDuration + " ms";
+	}
+	
+	@FunctionalInterface
+	private interface Change
+	{
+		void apply(PendingUpdate update);
+	}
+	
+	/**
+	 * The changes of one account not yet stored, only modified inside {@link Map#compute} or {@link Map#merge} of the pending map.
+	 */
+	private static final class PendingUpdate
+	{
+		protected final String _login;
+		protected final long _queueTime;
+		protected long _lastActive = -1;
+		protected String _lastIP;
+		protected int _lastServer = -1;
+		protected String[] _tracert;
+		
+		public PendingUpdate(String login, long queueTime)
+		{
+			_login = login;
+			_queueTime = queueTime;
+		}
+		
+		public PendingUpdate mergeOlder(PendingUpdate older)
+		{
+			final PendingUpdate merged = new PendingUpdate(_login, Math.min(_queueTime, older._queueTime));
+			merged._lastActive = _lastActive >= 0 ? _lastActive : older._lastActive;
+			merged._lastIP = _lastActive >= 0 ? _lastIP : older._lastIP;
+			merged._lastServer = _lastServer >= 0 ? _lastServer : older._lastServer;
+			merged._tracert = _tracert != null ? _tracert : older._tracert;
+			return merged;
+		}
+		
+		public void addBatch(PreparedStatement info, PreparedStatement server, PreparedStatement ips) throws SQLException
+		{
+			if (_lastActive >= 0)
+			{
+				setInfo(info);
+				info.addBatch();
+			}
+			if (_lastServer >= 0)
+			{
+				setServer(server);
+				server.addBatch();
+			}
+			if (_tracert != null)
+			{
+				setTracert(ips);
+				ips.addBatch();
+			}
+		}
+		
+		public void execute(Connection con) throws SQLException
+		{
+			if (_lastActive >= 0)
+			{
+				try (PreparedStatement ps = con.prepareStatement(ACCOUNT_INFO_UPDATE))
+				{
+					setInfo(ps);
+					ps.executeUpdate();
+				}
+			}
+			if (_lastServer >= 0)
+			{
+				try (PreparedStatement ps = con.prepareStatement(ACCOUNT_LAST_SERVER_UPDATE))
+				{
+					setServer(ps);
+					ps.executeUpdate();
+				}
+			}
+			if (_tracert != null)
+			{
+				try (PreparedStatement ps = con.prepareStatement(ACCOUNT_IPS_UPDATE))
+				{
+					setTracert(ps);
+					ps.executeUpdate();
+				}
+			}
+		}
+		
+		private void setInfo(PreparedStatement ps) throws SQLException
+		{
+			ps.setLong(1, _lastActive);
+			ps.setString(2, _lastIP);
+			ps.setString(3, _login);
+		}
+		
+		private void setServer(PreparedStatement ps) throws SQLException
+		{
+			ps.setInt(1, _lastServer);
+			ps.setString(2, _login);
+		}
+		
+		private void setTracert(PreparedStatement ps) throws SQLException
+		{
+			for (int i = 0; i < _tracert.length; i++)
+			{
+				ps.setString(i + 1, _tracert[i]);
+			}
+			ps.setString(6, _login);
+		}
+	}
+	
+	public static AccountUpdater getInstance()
+	{
+		return SingletonHolder._instance;
+	}
+	
+	private static class SingletonHolder
+	{
+		protected static final AccountUpdater _instance = new AccountUpdater();
+	}
+}
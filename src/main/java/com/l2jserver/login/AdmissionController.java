@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.login;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sheds load early when the auth pipeline can't keep up, so the clients already being served still finish within their timeout.<br>
+ * New connections are refused first, on accept or on their first packet, while clients that already passed the GameGuard authentication keep going through until the stages are critically late.
+ */
+public final class AdmissionController
+{
+	private final LongAdder _rejectedConnections = new LongAdder();
+	private final LongAdder _rejectedLogins = new LongAdder();
+	
+	protected AdmissionController()
+	{
+	}
+	
+	/**
+	 * Checks if a new handshake can be started.
+	 * @return true if the connection is admitted, false if the server is overloaded
+	 */
+	public boolean admitConnection()
+	{
+		if (Config.WAITING_ROOM)
+		{
+			// the waiting room paces the handshakes itself, only refuse once it is full
+			if (WaitingRoom.getInstance().hasRoom())
+			{
+				return true;
+			}
+			_rejectedConnections.increment();
+			return false;
+		}
+		
+		if (!isActive())
+		{
+			return true;
+		}
+		
+		final AuthPipeline pipeline = AuthPipeline.getInstance();
+		if ((getEstimatedWaitTime(pipeline) < Config.ADMISSION_CONNECTION_MAX_WAIT) && (getQueueLoad(pipeline) < Config.ADMISSION_CONNECTION_MAX_QUEUE_LOAD))
+		{
+			return true;
+		}
+		_rejectedConnections.increment();
+		return false;
+	}
+	
+	/**
+	 * Checks if a login request of a client that already passed the GameGuard authentication can be processed.
+	 * @return true if the login is admitted, false if the server is critically overloaded
+	 */
+	public boolean admitLogin()
+	{
+		if (!isActive() || (getEstimatedWaitTime(AuthPipeline.getInstance()) < Config.ADMISSION_LOGIN_MAX_WAIT))
+		{
+			return true;
+		}
+		_rejectedLogins.increment();
+		return false;
+	}
+	
+	private static boolean isActive()
+	{
+		// load is measured on the stages, without them there is nothing to decide on
+		return Config.ADMISSION_CONTROL && AuthPipeline.getInstance().isEnabled();
+	}
+	
+	private static double getEstimatedWaitTime(AuthPipeline pipeline)
+	{
+		// a login goes through both stages, one after the other
+		return pipeline.getCryptoStage().getEstimatedWaitTime() + pipeline.getAccountStage().getEstimatedWaitTime();
+	}
+	
+	private static double getQueueLoad(AuthPipeline pipeline)
+	{
+		return Math.max(pipeline.getCryptoStage().getQueueLoad(), pipeline.getAccountStage().getQueueLoad());
+	}
+	
+	public long getRejectedConnectionCount()
+	{
+		return _rejectedConnections.sum();
+	}
+	
+	public long getRejectedLoginCount()
+	{
+		return _rejectedLogins.sum();
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "Admission control: " + (isActive() ? "active" : "inactive") + ", rejected connections " + getRejectedConnectionCount() + ", rejected logins " + getRejectedLoginCount();
+	}
+	
+	public static AdmissionController getInstance()
+	{
+		return SingletonHolder._instance;
+	}
+	
+	private static class SingletonHolder
+	{
+		protected static final AdmissionController _instance = new AdmissionController();
+	}
+}
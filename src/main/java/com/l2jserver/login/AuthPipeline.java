@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.login;
+
+import java.util.logging.Logger;
+
+import com.l2jserver.login.SelectorHelper.ExecutionMode;
+import com.l2jserver.util.StageExecutor;
+
+/**
+ * Executors for the stages of the login handshake.<br>
+ * RSA decryption and password hashing run on the crypto stage, sized for the available processors.<br>
+ * Account lookups and checkin run on the account stage, sized for the database connections.<br>
+ * Each stage has its own bounded queue, so a slow database doesn't hold RSA work and the other way around.
+ */
+public final class AuthPipeline
+{
+	private static final Logger _log = Logger.getLogger(AuthPipeline.class.getName());
+	
+	private final StageExecutor _cryptoStage;
+	private final StageExecutor _accountStage;
+	
+	protected AuthPipeline()
+	{
+		final int cryptoThreads = Config.CRYPTO_STAGE_THREADS > 0 ? Config.CRYPTO_STAGE_THREADS : Runtime.getRuntime().availableProcessors();
+		final int accountThreads = Config.ACCOUNT_STAGE_THREADS > 0 ? Config.ACCOUNT_STAGE_THREADS : Config.DATABASE_MAX_CONNECTIONS;
+		_cryptoStage = new StageExecutor("CryptoStage", cryptoThreads, Config.CRYPTO_STAGE_QUEUE_SIZE);
+		_accountStage = new StageExecutor("AccountStage", accountThreads, Config.ACCOUNT_STAGE_QUEUE_SIZE);
+		_log.info("Auth pipeline: " + cryptoThreads + " crypto threads, " + accountThreads + " account threads.");
+	}
+	
+	/**
+	 * @return the CPU bound stage, RSA decryption and password hashing
+	 */
+	public StageExecutor getCryptoStage()
+	{
+		return _cryptoStage;
+	}
+	
+	/**
+	 * @return the I/O bound stage, account lookup and checkin
+	 */
+	public StageExecutor getAccountStage()
+	{
+		return _accountStage;
+	}
+	
+	/**
+	 * @return true if login requests go through the stages, false if they run entirely on the packet thread
+	 */
+	public boolean isEnabled()
+	{
+		return Config.PACKET_EXECUTION_MODE == ExecutionMode.POOL;
+	}
+	
+	public void shutdown()
+	{
+		_cryptoStage.shutdown();
+		_accountStage.shutdown();
+	}
+	
+	public static AuthPipeline getInstance()
+	{
+		return SingletonHolder._instance;
+	}
+	
+	private static class SingletonHolder
+	{
+		protected static final AuthPipeline _instance = new AuthPipeline();
+	}
+}
@@ -0,0 +1,701 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.login;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.LineNumberReader;
+import java.io.UncheckedIOException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.l2jserver.util.network.IPBanTable;
+import com.l2jserver.util.network.IPBanTrie;
+import com.l2jserver.util.network.IPBanTrie.BanVisitor;
+import com.l2jserver.util.network.IPBanTrie.Network;
+
+/**
+ * Banned networks of the login server, from two sources kept apart:
+ * <ul>
+ * <li>the bans of {@code banned_ip.cfg}, in an {@link IPBanTable} reloaded as a whole when the file changes if {@link Config#BAN_FILE_RELOAD} is enabled. The new table is built aside and swapped in, so lookups never see a half loaded file.</li>
+ * <li>the bans added at runtime, by game servers or after too many failed logins, in an {@link IPBanTrie}. With {@link Config#BAN_PERSISTENCE} every change is appended to a journal, so they survive restarts.</li>
+ * </ul>
+ * With {@link Config#BAN_PERSISTENCE} the table of the file is also written to {@code data/bans.bin} with the modification time and length of the file. At startup, when the file didn't change since, that table is memory mapped and used as is by lookups, without parsing the file nor building anything.<br>
+ * The ban file is the only source of its bans: lifting one of them at runtime lasts until the file is reloaded or the server restarts, and is never saved. To lift it for good, remove it from the file.<br>
+ * The journal is written again with only the current runtime bans after startup and every {@link Config#BAN_JOURNAL_MAX_RECORDS} changes. Expired runtime bans are swept every second, expired bans of the file are skipped.
+ */
+public final class BanList implements Runnable
+{
+	private static final Logger _log = Logger.getLogger(BanList.class.getName());
+	
+	private static final int TABLE_MAGIC = 0x4C324250;
+	private static final int TABLE_VERSION = 2;
+	/** Magic, version, number of bans and of IPv4 bans, last modification time and length of the ban file. */
+	private static final int HEADER_SIZE = 32;
+	/** Operation, address length, prefix length, padding, expiration and address padded to 16 bytes. */
+	private static final int RECORD_SIZE = 32;
+	
+	private static final byte RECORD_BAN = 0;
+	private static final byte RECORD_UNBAN = 1;
+	
+	/** Time given to editors to finish writing the ban file before it is reloaded. */
+	private static final long RELOAD_DELAY = 500;
+	
+	private final File _banFile = new File("./config/banned_ip.cfg");
+	private final Path _tableFile = new File(Config.DATAPACK_ROOT, "data/bans.bin").toPath();
+	private final Path _journalFile = new File(Config.DATAPACK_ROOT, "data/bans.journal").toPath();
+	
+	private volatile IPBanTable _fileBans = new IPBanTable.Builder().build();
+	/** Last modification time and length of the ban file when it was loaded. */
+	private long _fileLastModified;
+	private long _fileLength;
+	
+	private final IPBanTrie _runtimeBans = new IPBanTrie();
+	private FileChannel _journal;
+	private final ByteBuffer _journalRecord = ByteBuffer.allocate(RECORD_SIZE);
+	private volatile int _journalRecords;
+	
+	private WatchService _watcher;
+	private volatile long _expiredBans;
+	
+	protected BanList()
+	{
+		final long start = System.currentTimeMillis();
+		if (!Config.BAN_PERSISTENCE || !loadTable())
+		{
+			loadBanFile();
+		}
+		if (Config.BAN_PERSISTENCE)
+		{
+			loadJournal();
+			compact();
+		}
+		_log.info("Loaded " + size() + " IP Bans in " + (System.currentTimeMillis() - start) + " ms.");
+		
+		if (Config.BAN_FILE_RELOAD)
+		{
+			try
+			{
+				_watcher = FileSystems.getDefault().newWatchService();
+				_banFile.getAbsoluteFile().getParentFile().toPath().register(_watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+			}
+			catch (IOException e)
+			{
+				_log.log(Level.WARNING, "Could not watch the IP Bans file, it won't be reloaded. Details: " + e.getMessage(), e);
+				_watcher = null;
+			}
+		}
+		
+		final Thread thread = new Thread(this, "BanList");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	@Override
+	public void run()
+	{
+		while (true)
+		{
+			try
+			{
+				final WatchKey key;
+				if (_watcher != null)
+				{
+					key = _watcher.poll(1, TimeUnit.SECONDS);
+				}
+				else
+				{
+					key = null;
+					Thread.sleep(1000);
+				}
+				
+				if (key != null)
+				{
+					boolean changed = false;
+					for (WatchEvent<?> event : key.pollEvents())
+					{
+						changed |= _banFile.getName().equals(String.valueOf(event.context()));
+					}
+					key.reset();
+					if (changed)
+					{
+						Thread.sleep(RELOAD_DELAY);
+						reloadBanFile();
+					}
+				}
+				
+				_expiredBans += _runtimeBans.sweep(System.currentTimeMillis());
+				
+				if (_journalRecords >= Config.BAN_JOURNAL_MAX_RECORDS)
+				{
+					compact();
+				}
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Bans a network until the given time, or extends its ban.
+	 * @param address the network address, 4 or 16 bytes
+	 * @param prefixLength the number of significant bits of the address
+	 * @param expiration time in milliseconds when the ban is over, {@link IPBanTrie#PERMANENT} for no end
+	 */
+	public synchronized void add(byte[] address, int prefixLength, long expiration)
+	{
+		_runtimeBans.add(address, prefixLength, expiration);
+		journal(RECORD_BAN, address, prefixLength, expiration);
+	}
+	
+	/**
+	 * Lifts the ban of a network. A ban of the ban file is only lifted until the file is reloaded or the server restarts.
+	 * @param address the network address, 4 or 16 bytes
+	 * @param prefixLength the number of significant bits of the address
+	 * @return true if the network was banned
+	 */
+	public boolean remove(byte[] address, int prefixLength)
+	{
+		final boolean removed;
+		synchronized (this)
+		{
+			removed = _runtimeBans.remove(address, prefixLength);
+			if (removed)
+			{
+				journal(RECORD_UNBAN, address, prefixLength, 0);
+			}
+		}
+		return _fileBans.remove(address, prefixLength) | removed;
+	}
+	
+	/**
+	 * @param address the address, 4 or 16 bytes
+	 * @param now the current time in milliseconds
+	 * @return true if a network including the address has a ban not expired yet
+	 */
+	public boolean isBanned(byte[] address, long now)
+	{
+		return _runtimeBans.isBanned(address, now) || _fileBans.isBanned(address, now);
+	}
+	
+	/**
+	 * @return the number of banned networks, including expired bans of the ban file and runtime bans expired during the last second
+	 */
+	public int size()
+	{
+		return _fileBans.size() + _runtimeBans.size();
+	}
+	
+	/**
+	 * @return the bans not over yet, taken at a single point in time
+	 */
+	public synchronized Snapshot getSnapshot()
+	{
+		final Snapshot snapshot = new Snapshot(System.currentTimeMillis());
+		_fileBans.forEach(snapshot);
+		_runtimeBans.forEach(snapshot);
+		return snapshot;
+	}
+	
+	private void reloadBanFile()
+	{
+		if ((_banFile.lastModified() == _fileLastModified) && (_banFile.length() == _fileLength))
+		{
+			return;
+		}
+		
+		final long start = System.currentTimeMillis();
+		loadBanFile();
+		_log.info("Reloaded " + _fileBans.size() + " IP Bans from " + _banFile.getName() + " in " + (System.currentTimeMillis() - start) + " ms.");
+	}
+	
+	private void loadBanFile()
+	{
+		final IPBanTable.Builder bans = new IPBanTable.Builder();
+		final long fileLastModified = _banFile.lastModified();
+		final long fileLength = _banFile.length();
+		if (_banFile.exists() && _banFile.isFile())
+		{
+			try (FileInputStream fis = new FileInputStream(_banFile);
+				InputStreamReader is = new InputStreamReader(fis);
+				LineNumberReader lnr = new LineNumberReader(is))
+			{
+				//@formatter:off
+				lnr.lines()
+					.map(String::trim)
+					.filter(l -> !l.isEmpty() && (l.charAt(0) != '#'))
+					.forEach(line -> {
+						String[] parts = line.split("#", 2); // address[ duration][ # comments]
+						line = parts[0];
+						parts = line.split("\\s+"); // durations might be aligned via multiple spaces
+						String address = parts[0];
+						long duration = 0;
+						
+						if (parts.length > 1)
+						{
+							try
+							{
+								duration = Long.parseLong(parts[1]);
+							}
+							catch (NumberFormatException nfe)
+							{
+								_log.warning("Skipped: Incorrect ban duration (" + parts[1] + ") on (" + _banFile.getName() + "). Line: " + lnr.getLineNumber());
+								return;
+							}
+						}
+						
+						try
+						{
+							final Network network = IPBanTrie.parse(address);
+							bans.add(network.getAddress(), network.getPrefixLength(), duration);
+						}
+						catch (UnknownHostException e)
+						{
+							_log.warning("Skipped: Invalid address (" + address + ") on (" + _banFile.getName() + "). Line: " + lnr.getLineNumber());
+						}
+					});
+				//@formatter:on
+			}
+			catch (IOException e)
+			{
+				_log.log(Level.WARNING, "Error while reading the bans file (" + _banFile.getName() + "). Details: " + e.getMessage(), e);
+			}
+		}
+		else
+		{
+			_log.warning("IP Bans file (" + _banFile.getName() + ") is missing or is a directory, skipped.");
+		}
+		
+		final IPBanTable table = bans.build();
+		_fileBans = table;
+		_fileLastModified = fileLastModified;
+		_fileLength = fileLength;
+		if (Config.BAN_PERSISTENCE)
+		{
+			writeTable(table, fileLastModified, fileLength);
+		}
+	}
+	
+	/**
+	 * Maps the table of the ban file written by a previous run, if the file didn't change since.
+	 * @return true if the bans of the ban file were loaded
+	 */
+	private boolean loadTable()
+	{
+		if (!Files.isRegularFile(_tableFile))
+		{
+			return false;
+		}
+		
+		try (FileChannel channel = FileChannel.open(_tableFile, StandardOpenOption.READ))
+		{
+			// the mapping stays valid once the channel is closed
+			final MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			if ((buffer.remaining() < HEADER_SIZE) || (buffer.getInt() != TABLE_MAGIC) || (buffer.getInt() != TABLE_VERSION))
+			{
+				_log.warning("Ignored the IP Bans table, unknown format.");
+				return false;
+			}
+			final int bans = buffer.getInt();
+			final int ipv4Bans = buffer.getInt();
+			final long fileLastModified = buffer.getLong();
+			final long fileLength = buffer.getLong();
+			if (buffer.remaining() != ((long) bans * IPBanTable.RECORD_SIZE))
+			{
+				_log.warning("Ignored the IP Bans table, the file is truncated.");
+				return false;
+			}
+			if (!_banFile.isFile() || (_banFile.lastModified() != fileLastModified) || (_banFile.length() != fileLength))
+			{
+				return false;
+			}
+			
+			_fileBans = new IPBanTable(buffer, ipv4Bans);
+			_fileLastModified = fileLastModified;
+			_fileLength = fileLength;
+			return true;
+		}
+		catch (IOException | IllegalArgumentException e)
+		{
+			_log.log(Level.WARNING, "Could not load the IP Bans table. Details: " + e.getMessage(), e);
+			return false;
+		}
+	}
+	
+	/**
+	 * Writes the table of the ban file, to map it at the next startup. The file is replaced only once fully written.
+	 */
+	private void writeTable(IPBanTable table, long fileLastModified, long fileLength)
+	{
+		final Path temp = _tableFile.resolveSibling(_tableFile.getFileName() + ".tmp");
+		try
+		{
+			Files.createDirectories(_tableFile.getParent());
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+			{
+				final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(TABLE_MAGIC);
+				header.putInt(TABLE_VERSION);
+				header.putInt(table.size());
+				header.putInt(table.getIPv4Count());
+				header.putLong(fileLastModified);
+				header.putLong(fileLength);
+				header.flip();
+				write(channel, header);
+				write(channel, table.getRecords());
+				channel.force(true);
+			}
+			Files.move(temp, _tableFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e)
+		{
+			// the table of the previous file is ignored at startup, its stamp doesn't match
+			_log.log(Level.WARNING, "Could not write the IP Bans table. Details: " + e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Replays the runtime changes of the journal. A record cut by a crash ends the journal.
+	 */
+	private void loadJournal()
+	{
+		if (!Files.isRegularFile(_journalFile))
+		{
+			return;
+		}
+		
+		try
+		{
+			final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(_journalFile));
+			final long now = System.currentTimeMillis();
+			while (buffer.remaining() >= RECORD_SIZE)
+			{
+				readRecord(buffer, _runtimeBans, now);
+			}
+		}
+		catch (IOException | IllegalArgumentException e)
+		{
+			_log.log(Level.WARNING, "Could not replay the IP Bans journal. Details: " + e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Applies a record to the bans.
+	 * @param buffer the buffer, positioned on the record
+	 * @param bans the bans
+	 * @param now the current time, bans already over are skipped
+	 */
+	private static void readRecord(ByteBuffer buffer, IPBanTrie bans, long now)
+	{
+		final int start = buffer.position();
+		final byte operation = buffer.get();
+		final int length = buffer.get();
+		if ((length != 4) && (length != 16))
+		{
+			throw new IllegalArgumentException("Invalid record at " + start);
+		}
+		final byte[] address = new byte[length];
+		final int prefixLength = buffer.get() & 0xFF;
+		buffer.position(start + 8);
+		final long expiration = buffer.getLong();
+		buffer.get(address);
+		buffer.position(start + RECORD_SIZE);
+		
+		if (operation == RECORD_UNBAN)
+		{
+			bans.remove(address, prefixLength);
+		}
+		else if ((expiration == IPBanTrie.PERMANENT) || (expiration > now))
+		{
+			bans.add(address, prefixLength, expiration);
+		}
+	}
+	
+	private static void writeRecord(ByteBuffer buffer, byte operation, byte[] address, int prefixLength, long expiration)
+	{
+		final int start = buffer.position();
+		buffer.put(operation);
+		buffer.put((byte) address.length);
+		buffer.put((byte) prefixLength);
+		buffer.position(start + 8);
+		buffer.putLong(expiration);
+		buffer.put(address);
+		while (buffer.position() < (start + RECORD_SIZE))
+		{
+			buffer.put((byte) 0);
+		}
+	}
+	
+	private static void write(FileChannel channel, ByteBuffer buffer) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			channel.write(buffer);
+		}
+	}
+	
+	private void journal(byte operation, byte[] address, int prefixLength, long expiration)
+	{
+		if (_journal == null)
+		{
+			return;
+		}
+		
+		_journalRecord.clear();
+		writeRecord(_journalRecord, operation, address, prefixLength, expiration);
+		_journalRecord.flip();
+		try
+		{
+			write(_journal, _journalRecord);
+			_journalRecords++;
+		}
+		catch (IOException e)
+		{
+			_log.log(Level.WARNING, "Could not write the IP Bans journal. Details: " + e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Writes the journal again with only the current runtime bans, then reopens it for appending. Runtime changes wait until it is done.
+	 */
+	private synchronized void compact()
+	{
+		final Path temp = _journalFile.resolveSibling(_journalFile.getFileName() + ".tmp");
+		try
+		{
+			Files.createDirectories(_journalFile.getParent());
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+			{
+				final JournalWriter writer = new JournalWriter(channel, System.currentTimeMillis());
+				_runtimeBans.forEach(writer);
+				writer.flush();
+				channel.force(true);
+			}
+			
+			if (_journal != null)
+			{
+				_journal.close();
+				_journal = null;
+			}
+			Files.move(temp, _journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			_journalRecords = 0;
+		}
+		catch (IOException | UncheckedIOException e)
+		{
+			_log.log(Level.WARNING, "Could not compact the IP Bans journal. Details: " + e.getMessage(), e);
+		}
+		
+		if (_journal == null)
+		{
+			try
+			{
+				_journal = FileChannel.open(_journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			}
+			catch (IOException e)
+			{
+				_log.log(Level.WARNING, "Could not open the IP Bans journal, runtime bans will be lost on restart. Details: " + e.getMessage(), e);
+			}
+		}
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "Ban list: " + _fileBans.size() + " file bans, " + _runtimeBans.size() + " runtime bans, " + _expiredBans + " expired, " + (_journal == null ? "not saved" : _journalRecords + " journal records");
+	}
+	
+	/**
+	 * The bans not over yet at a given time, with their number by remaining duration.
+	 */
+	public static final class Snapshot implements BanVisitor
+	{
+		/** Upper bounds of the remaining durations counted together, in milliseconds. */
+		private static final long[] DURATIONS =
+		{
+			60000,
+			3600000,
+			86400000
+		};
+		private static final String[] DURATION_NAMES =
+		{
+			"under 1 minute",
+			"under 1 hour",
+			"under 1 day",
+			"longer"
+		};
+		
+		private final long _time;
+		private final Map<String, Long> _bans = new LinkedHashMap<>();
+		
+		public Snapshot(long time)
+		{
+			_time = time;
+		}
+		
+		@Override
+		public void visit(byte[] address, int prefixLength, long expiration)
+		{
+			if ((expiration != IPBanTrie.PERMANENT) && (expiration <= _time))
+			{
+				return;
+			}
+			
+			// a network of both lists keeps the later end
+			_bans.merge(IPBanTrie.toString(address, prefixLength), expiration, (current, added) -> (current == IPBanTrie.PERMANENT) || (added == IPBanTrie.PERMANENT) ? IPBanTrie.PERMANENT : Math.max(current, added));
+		}
+		
+		/**
+		 * @return the time the snapshot was taken at, in milliseconds
+		 */
+		public long getTime()
+		{
+			return _time;
+		}
+		
+		/**
+		 * @return the banned networks in CIDR notation, with the time in milliseconds when their ban is over, {@link IPBanTrie#PERMANENT} for permanent bans
+		 */
+		public Map<String, Long> getBans()
+		{
+			return Collections.unmodifiableMap(_bans);
+		}
+		
+		/**
+		 * @return the number of permanent bans, then of bans over in less than a minute, an hour, a day and longer
+		 */
+		public Map<String, Integer> getCountsByDuration()
+		{
+			final int[] counts = new int[DURATIONS.length + 1];
+			int permanent = 0;
+			for (long expiration : _bans.values())
+			{
+				if (expiration == IPBanTrie.PERMANENT)
+				{
+					permanent++;
+					continue;
+				}
+				
+				int group = 0;
+				while ((group < DURATIONS.length) && ((expiration - _time) >= DURATIONS[group]))
+				{
+					group++;
+				}
+				counts[group]++;
+			}
+			
+			final Map<String, Integer> result = new LinkedHashMap<>();
+			result.put("permanent", permanent);
+			for (int i = 0; i < counts.length; i++)
+			{
+				result.put(DURATION_NAMES[i], counts[i]);
+			}
+			return result;
+		}
+		
+		@Override
+		public String toString()
+		{
+			final StringBuilder sb = new StringBuilder("IP bans: ").append(_bans.size());
+			String separator = " (";
+			for (Map.Entry<String, Integer> entry : getCountsByDuration().entrySet())
+			{
+				sb.append(separator).append(entry.getKey()).append(' ').append(entry.getValue());
+				separator = ", ";
+			}
+			return sb.append(')').toString();
+		}
+	}
+	
+	/**
+	 * Writes ban records of the runtime bans not over yet, through a buffer.
+	 */
+	private static final class JournalWriter implements BanVisitor
+	{
+		private final FileChannel _channel;
+		private final long _now;
+		private final ByteBuffer _buffer = ByteBuffer.allocateDirect(RECORD_SIZE * 2048);
+		
+		public JournalWriter(FileChannel channel, long now)
+		{
+			_channel = channel;
+			_now = now;
+		}
+		
+		@Override
+		public void visit(byte[] address, int prefixLength, long expiration)
+		{
+			if ((expiration != IPBanTrie.PERMANENT) && (expiration <= _now))
+			{
+				return;
+			}
+			
+			if (!_buffer.hasRemaining())
+			{
+				try
+				{
+					flush();
+				}
+				catch (IOException e)
+				{
+					throw new UncheckedIOException(e);
+				}
+			}
+			writeRecord(_buffer, RECORD_BAN, address, prefixLength, expiration);
+		}
+		
+		public void flush() throws IOException
+		{
+			_buffer.flip();
+			write(_channel, _buffer);
+			_buffer.clear();
+		}
+	}
+	
+	public static BanList getInstance()
+	{
+		return SingletonHolder._instance;
+	}
+	
+	private static class SingletonHolder
+	{
+		protected static final BanList _instance = new BanList();
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.login;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import com.l2jserver.util.CountMinSketch;
+import com.l2jserver.util.Rnd;
+
+/**
+ * Counts the failed logins of every address and account over the last {@link Config#BRUTE_FORCE_WINDOW} seconds.<br>
+ * The counts are kept in {@link CountMinSketch}es, so memory stays the same however many addresses and account names an attack goes through, at the cost of counts that may be a bit too high.<br>
+ * An address reaching {@link Config#LOGIN_TRY_BEFORE_BAN} failures is banned for {@link Config#LOGIN_BLOCK_AFTER_BAN} seconds, an account reaching {@link Config#ACCOUNT_LOCKOUT_FAILURES} failures refuses logins until its failures get out of the window.<br>
+ * A locked account still accepts logins from the networks it successfully logged in from during the last {@link Config#ACCOUNT_KNOWN_NETWORK_DAYS} days, so an attacker can't keep its owner out.<br>
+ * A successful login starts a new count for its address, as the failures of an address are counted per generation and a success moves the address to the next one. Generations are kept in a fixed size table indexed by a hash of the address, so a success may also restart the count of an address sharing its slot. Account counts only decay with time.
+ */
+public final class BruteForceDetector
+{
+	private static final Logger _log = Logger.getLogger(BruteForceDetector.class.getName());
+	
+	private static final int DEPTH = 4;
+	
+	private final CountMinSketch _addresses;
+	private final CountMinSketch _accounts;
+	/** Successful logins by account and network. */
+	private final CountMinSketch _knownNetworks;
+	/** Generation of the failure count of the addresses, by hash. */
+	private final AtomicIntegerArray _addressGenerations;
+	/** Random seed of the generation slots, so an attacker can't pick addresses sharing the slot of their own. */
+	private final long _generationSeed = Rnd.nextLong();
+	private final int _addressThreshold;
+	private final int _accountThreshold;
+	
+	private final LongAdder _failures = new LongAdder();
+	private final LongAdder _addressBans = new LongAdder();
+	private final LongAdder _accountLockouts = new LongAdder();
+	private final LongAdder _lockedRefusals = new LongAdder();
+	
+	protected BruteForceDetector()
+	{
+		final long window = Config.BRUTE_FORCE_WINDOW * 1000L;
+		_addresses = new CountMinSketch(DEPTH, Config.BRUTE_FORCE_SKETCH_WIDTH, window);
+		_accounts = new CountMinSketch(DEPTH, Config.BRUTE_FORCE_SKETCH_WIDTH, window);
+		_knownNetworks = new CountMinSketch(DEPTH, Config.BRUTE_FORCE_SKETCH_WIDTH, Config.ACCOUNT_KNOWN_NETWORK_DAYS * 86400000L);
+		_addressGenerations = new AtomicIntegerArray(Integer.highestOneBit(Math.max(4, Config.BRUTE_FORCE_SKETCH_WIDTH) - 1) << 1);
+		// counters saturate, higher thresholds would never be reached
+		_addressThreshold = Math.min(Config.LOGIN_TRY_BEFORE_BAN, CountMinSketch.MAX_COUNT);
+		_accountThreshold = Math.min(Config.ACCOUNT_LOCKOUT_FAILURES, CountMinSketch.MAX_COUNT);
+		_log.info("Brute force detector: " + ((_addresses.getSize() + _accounts.getSize() + _knownNetworks.getSize() + (_addressGenerations.length() * 4L)) / 1024) + " KB.");
+	}
+	
+	/**
+	 * Counts a failed login.
+	 * @param address the client address
+	 * @param login the account name
+	 * @return true if the address has to be banned
+	 */
+	public boolean recordFailure(InetAddress address, String login)
+	{
+		_failures.increment();
+		if ((_accountThreshold > 0) && (_accounts.add(CountMinSketch.hash(login)) == _accountThreshold))
+		{
+			_accountLockouts.increment();
+			_log.warning("Account '" + login + "' locked! Too many login attemps.");
+		}
+		
+		final long key = addressKey(address);
+		if (_addresses.add(key + _addressGenerations.get(generationSlot(key))) >= _addressThreshold)
+		{
+			_addressBans.increment();
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Starts a new failure count for the address, and remembers the network of the login, a lockout of the account doesn't apply to it.
+	 * @param address the client address
+	 * @param login the account name
+	 */
+	public void recordSuccess(InetAddress address, String login)
+	{
+		_addressGenerations.incrementAndGet(generationSlot(addressKey(address)));
+		if (_accountThreshold > 0)
+		{
+			_knownNetworks.add(knownNetworkKey(address, login));
+		}
+	}
+	
+	/**
+	 * @param address the client address
+	 * @param login the account name
+	 * @return true if the account had too many failed logins during the window and never logged in from the network of the address recently
+	 */
+	public boolean isAccountLocked(InetAddress address, String login)
+	{
+		if ((_accountThreshold <= 0) || (_accounts.estimate(CountMinSketch.hash(login)) < _accountThreshold) || (_knownNetworks.estimate(knownNetworkKey(address, login)) > 0))
+		{
+			return false;
+		}
+		_lockedRefusals.increment();
+		return true;
+	}
+	
+	/**
+	 * IPv4 addresses are grouped by /24 and IPv6 ones by /64, so a client getting a new dynamic address from its provider is usually still known.
+	 * @param address the address
+	 * @param login the account name
+	 * @return the key of the account and network in the sketch
+	 */
+	private static long knownNetworkKey(InetAddress address, String login)
+	{
+		final byte[] raw = address.getAddress();
+		long key = CountMinSketch.hash(login);
+		for (int i = 0; i < (raw.length == 4 ? 3 : 8); i++)
+		{
+			key = (key ^ (raw[i] & 0xFF)) * 0x100000001b3L;
+		}
+		return key;
+	}
+	
+	/**
+	 * IPv6 addresses are counted by /64 network, the smallest network usually given to a single client.
+	 * @param address the address
+	 * @return the key of the address in the sketch
+	 */
+	private static long addressKey(InetAddress address)
+	{
+		final byte[] raw = address.getAddress();
+		// the length keeps IPv4 keys apart from IPv6 ones
+		long key = raw.length;
+		for (int i = 0; i < Math.min(raw.length, 8); i++)
+		{
+			key = (key << 8) | (raw[i] & 0xFF);
+		}
+		return key;
+	}
+	
+	/**
+	 * @param key the key of the address
+	 * @return the index of the generation of the address
+	 */
+	private int generationSlot(long key)
+	{
+		final long hash = (key ^ _generationSeed) * 0x9E3779B97F4A7C15L;
+		return (int) (hash >>> 32) & (_addressGenerations.length() - 1);
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "Brute force detector: " + _failures.sum() + " failed logins, " + _addressBans.sum() + " address bans, " + _accountLockouts.sum() + " account lockouts, " + _lockedRefusals.sum() + " logins refused on locked accounts";
+	}
+	
+	public static BruteForceDetector getInstance()
+	{
+		return SingletonHolder._instance;
+	}
+	
+	private static class SingletonHolder
+	{
+		protected static final BruteForceDetector _instance = new BruteForceDetector();
+	}
+}
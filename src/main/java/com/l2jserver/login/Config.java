@@ -28,7 +28,11 @@ import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.l2jserver.login.SelectorHelper.ExecutionMode;
+import com.l2jserver.login.store.AccountStore.StoreType;
 import com.l2jserver.util.PropertiesParser;
+import com.l2jserver.util.db.L2DatabaseFactory.LeakDetection;
+import com.l2jserver.util.db.L2DatabaseFactory.PoolType;
 import com.l2jserver.util.network.StringUtil;
 
 /**
@@ -54,6 +58,17 @@ public final class Config
 	// --------------------------------------------------
 	public static boolean DEBUG;
 	public static long CONNECTION_CLOSE_TIME;
+	public static PoolType DATABASE_POOL;
+	public static int DATABASE_CHECKOUT_TIMEOUT;
+	public static String[] REPLICA_URLS;
+	public static int REPLICA_MAX_LAG;
+	public static boolean REPLICA_ALLOW_STANDALONE;
+	public static int REPLICA_CHECK_INTERVAL;
+	public static int DATABASE_BREAKER_FAILURES;
+	public static int DATABASE_BREAKER_OPEN_TIME;
+	public static boolean DEGRADED_MODE_CACHED_LOGIN;
+	public static LeakDetection CONNECTION_LEAK_DETECTION;
+	public static int CONNECTION_LEAK_SAMPLE_RATE;
 	// --------------------------------------------------
 	// Server Settings
 	// --------------------------------------------------
@@ -62,6 +77,13 @@ public final class Config
 	public static String LOGIN_BIND_ADDRESS;
 	public static int LOGIN_TRY_BEFORE_BAN;
 	public static int LOGIN_BLOCK_AFTER_BAN;
+	public static int BRUTE_FORCE_WINDOW;
+	public static int ACCOUNT_LOCKOUT_FAILURES;
+	public static int ACCOUNT_KNOWN_NETWORK_DAYS;
+	public static int BRUTE_FORCE_SKETCH_WIDTH;
+	public static boolean BAN_FILE_RELOAD;
+	public static boolean BAN_PERSISTENCE;
+	public static int BAN_JOURNAL_MAX_RECORDS;
 	public static String DATABASE_DRIVER;
 	public static String DATABASE_URL;
 	public static String DATABASE_LOGIN;
@@ -97,6 +119,42 @@ public final class Config
 	public static int NORMAL_CONNECTION_TIME;
 	public static int FAST_CONNECTION_TIME;
 	public static int MAX_CONNECTION_PER_IP;
+	public static int ACCEPT_BURST;
+	public static double ACCEPT_RATE;
+	public static int ACCEPT_MAX_CONNECTIONS_PER_IP;
+	public static int ACCEPT_FILTER_SIZE;
+	// --------------------------------------------------
+	// Auth Pipeline
+	// --------------------------------------------------
+	public static ExecutionMode PACKET_EXECUTION_MODE;
+	public static int CRYPTO_STAGE_THREADS;
+	public static int CRYPTO_STAGE_QUEUE_SIZE;
+	public static int ACCOUNT_STAGE_THREADS;
+	public static int ACCOUNT_STAGE_QUEUE_SIZE;
+	public static boolean ADMISSION_CONTROL;
+	public static int ADMISSION_CONNECTION_MAX_WAIT;
+	public static double ADMISSION_CONNECTION_MAX_QUEUE_LOAD;
+	public static int ADMISSION_LOGIN_MAX_WAIT;
+	public static boolean WAITING_ROOM;
+	public static int WAITING_ROOM_SIZE;
+	public static int WAITING_ROOM_MAX_PER_IP;
+	public static int WAITING_ROOM_TARGET_LATENCY;
+	public static StoreType ACCOUNT_STORE;
+	public static boolean ACCOUNT_CACHE;
+	public static int ACCOUNT_CACHE_SIZE;
+	public static int ACCOUNT_CACHE_EXPIRE;
+	public static int ACCOUNT_CACHE_PREWARM;
+	public static boolean ACCOUNT_FILTER;
+	public static long ACCOUNT_FILTER_EXPECTED_ACCOUNTS;
+	public static double ACCOUNT_FILTER_FALSE_POSITIVE_RATE;
+	public static int ACCOUNT_FILTER_MISS_RATE;
+	public static int ACCOUNT_FILTER_RELOAD_INTERVAL;
+	public static int IPAUTH_RELOAD_INTERVAL;
+	public static int ACCOUNT_LOOKUP_CONCURRENCY;
+	public static int ACCOUNT_LOOKUP_BATCH_SIZE;
+	public static boolean ACCOUNT_UPDATE_WRITE_BEHIND;
+	public static int ACCOUNT_UPDATE_FLUSH_INTERVAL;
+	public static int ACCOUNT_UPDATE_BATCH_SIZE;
 	// --------------------------------------------------
 	// Email
 	// --------------------------------------------------
@@ -141,6 +199,13 @@ public final class Config
 		
 		LOGIN_TRY_BEFORE_BAN = ServerSettings.getInt("LoginTryBeforeBan", 5);
 		LOGIN_BLOCK_AFTER_BAN = ServerSettings.getInt("LoginBlockAfterBan", 900);
+		BRUTE_FORCE_WINDOW = Math.max(1, ServerSettings.getInt("BruteForceWindow", 300));
+		ACCOUNT_LOCKOUT_FAILURES = ServerSettings.getInt("AccountLockoutFailures", 20);
+		ACCOUNT_KNOWN_NETWORK_DAYS = Math.max(1, ServerSettings.getInt("AccountKnownNetworkDays", 30));
+		BRUTE_FORCE_SKETCH_WIDTH = ServerSettings.getInt("BruteForceSketchWidth", 1048576);
+		BAN_FILE_RELOAD = ServerSettings.getBoolean("BanFileReload", true);
+		BAN_PERSISTENCE = ServerSettings.getBoolean("BanPersistence", true);
+		BAN_JOURNAL_MAX_RECORDS = ServerSettings.getInt("BanJournalMaxRecords", 10000);
 		
 		LOGIN_SERVER_SCHEDULE_RESTART = ServerSettings.getBoolean("LoginRestartSchedule", false);
 		LOGIN_SERVER_SCHEDULE_RESTART_TIME = ServerSettings.getLong("LoginRestartTime", 24);
@@ -152,6 +217,17 @@ public final class Config
 		DATABASE_MAX_CONNECTIONS = ServerSettings.getInt("MaximumDbConnections", 10);
 		DATABASE_MAX_IDLE_TIME = ServerSettings.getInt("MaximumDbIdleTime", 0);
 		CONNECTION_CLOSE_TIME = ServerSettings.getLong("ConnectionCloseTime", 60000);
+		CONNECTION_LEAK_DETECTION = ServerSettings.getEnum("ConnectionLeakDetection", LeakDetection.class, LeakDetection.SAMPLED);
+		CONNECTION_LEAK_SAMPLE_RATE = Math.max(1, ServerSettings.getInt("ConnectionLeakSampleRate", 100));
+		DATABASE_POOL = ServerSettings.getEnum("DbPool", PoolType.class, PoolType.C3P0);
+		DATABASE_CHECKOUT_TIMEOUT = ServerSettings.getInt("DbCheckoutTimeout", 5000);
+		REPLICA_URLS = ServerSettings.getString("ReplicaURLs", "").split(";");
+		REPLICA_MAX_LAG = ServerSettings.getInt("ReplicaMaxLag", 5);
+		REPLICA_ALLOW_STANDALONE = ServerSettings.getBoolean("ReplicaAllowStandalone", false);
+		REPLICA_CHECK_INTERVAL = Math.max(1000, ServerSettings.getInt("ReplicaCheckInterval", 5000));
+		DATABASE_BREAKER_FAILURES = ServerSettings.getInt("DbBreakerFailures", 5);
+		DATABASE_BREAKER_OPEN_TIME = ServerSettings.getInt("DbBreakerOpenTime", 10000);
+		DEGRADED_MODE_CACHED_LOGIN = ServerSettings.getBoolean("DegradedModeCachedLogin", true);
 		
 		SHOW_LICENCE = ServerSettings.getBoolean("ShowLicence", true);
 		
@@ -163,6 +239,50 @@ public final class Config
 		FAST_CONNECTION_TIME = ServerSettings.getInt("FastConnectionTime", 350);
 		MAX_CONNECTION_PER_IP = ServerSettings.getInt("MaxConnectionPerIP", 50);
 		
+		ACCEPT_BURST = ServerSettings.getInt("AcceptBurst", 10);
+		// slower than one connection every 100 seconds would overflow the bucket times
+		ACCEPT_RATE = Math.max(0.01, ServerSettings.getDouble("AcceptRate", 1.0));
+		ACCEPT_MAX_CONNECTIONS_PER_IP = ServerSettings.getInt("AcceptMaxConnectionsPerIP", 20);
+		ACCEPT_FILTER_SIZE = ServerSettings.getInt("AcceptFilterSize", 65536);
+		
+		PACKET_EXECUTION_MODE = ServerSettings.getEnum("PacketExecutionMode", ExecutionMode.class, ExecutionMode.POOL);
+		CRYPTO_STAGE_THREADS = ServerSettings.getInt("CryptoStageThreads", 0);
+		CRYPTO_STAGE_QUEUE_SIZE = ServerSettings.getInt("CryptoStageQueueSize", 2048);
+		ACCOUNT_STAGE_THREADS = ServerSettings.getInt("AccountStageThreads", 0);
+		ACCOUNT_STAGE_QUEUE_SIZE = ServerSettings.getInt("AccountStageQueueSize", 4096);
+		
+		ADMISSION_CONTROL = ServerSettings.getBoolean("AdmissionControl", true);
+		ADMISSION_CONNECTION_MAX_WAIT = ServerSettings.getInt("AdmissionConnectionMaxWait", 1000);
+		ADMISSION_CONNECTION_MAX_QUEUE_LOAD = ServerSettings.getDouble("AdmissionConnectionMaxQueueLoad", 0.75);
+		ADMISSION_LOGIN_MAX_WAIT = ServerSettings.getInt("AdmissionLoginMaxWait", 5000);
+		
+		WAITING_ROOM = ServerSettings.getBoolean("WaitingRoom", false);
+		WAITING_ROOM_SIZE = ServerSettings.getInt("WaitingRoomSize", 20000);
+		WAITING_ROOM_MAX_PER_IP = ServerSettings.getInt("WaitingRoomMaxPerIP", 10);
+		WAITING_ROOM_TARGET_LATENCY = ServerSettings.getInt("WaitingRoomTargetLatency", 2000);
+		
+		ACCOUNT_STORE = ServerSettings.getEnum("AccountStore", StoreType.class, StoreType.JDBC);
+		
+		ACCOUNT_CACHE = ServerSettings.getBoolean("AccountCache", true);
+		ACCOUNT_CACHE_SIZE = ServerSettings.getInt("AccountCacheSize", 50000);
+		ACCOUNT_CACHE_EXPIRE = ServerSettings.getInt("AccountCacheExpire", 600);
+		// both are loaded from the accounts table
+		ACCOUNT_CACHE_PREWARM = ACCOUNT_STORE == StoreType.JDBC ? ServerSettings.getInt("AccountCachePrewarm", 0) : 0;
+		
+		ACCOUNT_FILTER = (ACCOUNT_STORE == StoreType.JDBC) && ServerSettings.getBoolean("AccountFilter", false);
+		ACCOUNT_FILTER_EXPECTED_ACCOUNTS = ServerSettings.getLong("AccountFilterExpectedAccounts", 10000000);
+		ACCOUNT_FILTER_FALSE_POSITIVE_RATE = ServerSettings.getDouble("AccountFilterFalsePositiveRate", 0.01);
+		ACCOUNT_FILTER_MISS_RATE = ServerSettings.getInt("AccountFilterMissRate", 20);
+		ACCOUNT_FILTER_RELOAD_INTERVAL = ServerSettings.getInt("AccountFilterReloadInterval", 60);
+		IPAUTH_RELOAD_INTERVAL = ServerSettings.getInt("IpAuthReloadInterval", 60);
+		
+		ACCOUNT_LOOKUP_CONCURRENCY = ServerSettings.getInt("AccountLookupConcurrency", 0);
+		ACCOUNT_LOOKUP_BATCH_SIZE = ServerSettings.getInt("AccountLookupBatchSize", 64);
+		
+		ACCOUNT_UPDATE_WRITE_BEHIND = ServerSettings.getBoolean("AccountUpdateWriteBehind", true);
+		ACCOUNT_UPDATE_FLUSH_INTERVAL = ServerSettings.getInt("AccountUpdateFlushInterval", 1000);
+		ACCOUNT_UPDATE_BATCH_SIZE = ServerSettings.getInt("AccountUpdateBatchSize", 500);
+		
 		// MMO
 		final PropertiesParser mmoSettings = new PropertiesParser(MMO_CONFIG_FILE);
 		
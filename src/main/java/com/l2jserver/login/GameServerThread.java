@@ -117,8 +117,7 @@ public class GameServerThread extends Thread
 				}
 				
 				// decrypt if we have a key
-				_blowfish.decrypt(data, 0, data.length);
-				checksumOk = NewCrypt.verifyChecksum(data);
+				checksumOk = _blowfish.decryptAndVerifyChecksum(data, 0, data.length);
 				if (!checksumOk)
 				{
 					_log.warning("Incorrect packet checksum, closing connection (LS)");
@@ -235,12 +234,11 @@ public class GameServerThread extends Thread
 		try
 		{
 			byte[] data = sl.getContent();
-			NewCrypt.appendChecksum(data);
 			if (Config.DEBUG)
 			{
 				_log.finest("[S] " + sl.getClass().getSimpleName() + ":" + Config.EOL + Util.printData(data));
 			}
-			_blowfish.crypt(data, 0, data.length);
+			_blowfish.appendChecksumAndCrypt(data, 0, data.length);
 			
 			int len = data.length + 2;
 			synchronized (_out)
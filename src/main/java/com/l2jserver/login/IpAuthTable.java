@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.login;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.l2jserver.login.model.data.IpAuthRules;
+import com.l2jserver.util.db.L2DatabaseFactory;
+
+/**
+ * The accounts_ipauth rules of the accounts.<br>
+ * The names of the accounts having rules are loaded at startup, the rules of an account are loaded at its first login and kept.<br>
+ * Accounts without rules, almost all of them, never query the table. Both are reloaded every {@link Config#IPAUTH_RELOAD_INTERVAL} seconds to pick up rules edited by other tools, {@link #reload()} or {@link #reload(String)} apply them at once, the telnet command {@code reload ipauth [account]} does it.<br>
+ * Until the accounts having rules could be loaded, every login is refused.
+ */
+public final class IpAuthTable implements Runnable
+{
+	private static final Logger _log = Logger.getLogger(IpAuthTable.class.getName());
+	
+	private static final String IPAUTH_ACCOUNTS_SELECT = "SELECT DISTINCT login FROM accounts_ipauth";
+	private static final String ACCOUNT_IPAUTH_SELECT = "SELECT ip, type FROM accounts_ipauth WHERE login = ?";
+	
+	/** Delay before loading again after a failure, in milliseconds. */
+	private static final long RETRY_DELAY = 10000;
+	
+	private volatile Set<String> _accountsWithRules = ConcurrentHashMap.newKeySet();
+	private final Map<String, IpAuthRules> _rules = new ConcurrentHashMap<>();
+	private volatile boolean _loaded;
+	
+	protected IpAuthTable()
+	{
+		reload();
+		final Thread reloader = new Thread(this, "IpAuthTable");
+		reloader.setDaemon(true);
+		reloader.start();
+	}
+	
+	@Override
+	public void run()
+	{
+		while (!_loaded || (Config.IPAUTH_RELOAD_INTERVAL > 0))
+		{
+			try
+			{
+				Thread.sleep(_loaded ? Config.IPAUTH_RELOAD_INTERVAL * 1000L : RETRY_DELAY);
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+			reload();
+		}
+	}
+	
+	/**
+	 * Reloads the list of accounts having rules and forgets every loaded rule.
+	 * @return false if the list could not be loaded, the previous one is kept
+	 */
+	public boolean reload()
+	{
+		final Set<String> accounts = ConcurrentHashMap.newKeySet();
+		try (Connection con = L2DatabaseFactory.getInstance().getConnection();
+			PreparedStatement ps = con.prepareStatement(IPAUTH_ACCOUNTS_SELECT);
+			ResultSet rset = ps.executeQuery())
+		{
+			while (rset.next())
+			{
+				accounts.add(rset.getString("login").toLowerCase());
+			}
+		}
+		catch (SQLException e)
+		{
+			_log.log(Level.WARNING, "Could not load the accounts with ipauth rules: " + e.getMessage(), e);
+			return false;
+		}
+		
+		_accountsWithRules = accounts;
+		_rules.clear();
+		if (!_loaded)
+		{
+			_loaded = true;
+			_log.info("Loaded " + accounts.size() + " accounts with ipauth rules.");
+		}
+		return true;
+	}
+	
+	/**
+	 * Reloads the rules of one account.
+	 * @param login the account name
+	 */
+	public void reload(String login)
+	{
+		final String name = login.toLowerCase();
+		_rules.remove(name);
+		// adds the account to the list if it has rules now, so the next login loads them
+		_accountsWithRules.add(name);
+	}
+	
+	/**
+	 * @param login the account name
+	 * @return the rules of the account, {@link IpAuthRules#NONE} if it has none
+	 * @throws SQLException if the rules could not be loaded, or the accounts having rules were never loaded
+	 */
+	public IpAuthRules getRules(String login) throws SQLException
+	{
+		if (!_loaded)
+		{
+			throw new SQLException("The accounts with ipauth rules are not loaded yet.");
+		}
+		
+		final String name = login.toLowerCase();
+		if (!_accountsWithRules.contains(name))
+		{
+			return IpAuthRules.NONE;
+		}
+		
+		IpAuthRules rules = _rules.get(name);
+		if (rules == null)
+		{
+			rules = load(name);
+			_rules.put(name, rules);
+		}
+		return rules;
+	}
+	
+	private IpAuthRules load(String login) throws SQLException
+	{
+		final IpAuthRules rules = new IpAuthRules();
+		boolean found = false;
+		try (Connection con = L2DatabaseFactory.getInstance().getReadConnection();
+			PreparedStatement ps = con.prepareStatement(ACCOUNT_IPAUTH_SELECT))
+		{
+			ps.setString(1, login);
+			try (ResultSet rset = ps.executeQuery())
+			{
+				while (rset.next())
+				{
+					found = true;
+					final String ip = rset.getString("ip");
+					if (!rules.addRule(ip, rset.getString("type")))
+					{
+						_log.warning("Invalid ipauth rule '" + ip + "' for account '" + login + "'.");
+					}
+				}
+			}
+		}
+		
+		if (!found)
+		{
+			_accountsWithRules.remove(login);
+			return IpAuthRules.NONE;
+		}
+		return rules;
+	}
+	
+	public static IpAuthTable getInstance()
+	{
+		return SingletonHolder._instance;
+	}
+	
+	private static class SingletonHolder
+	{
+		protected static final IpAuthTable _instance = new IpAuthTable();
+	}
+}
@@ -22,8 +22,6 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.LineNumberReader;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.security.GeneralSecurityException;
@@ -50,6 +48,7 @@ public final class L2LoginServer
 	private static L2LoginServer _instance;
 	private GameServerListener _gameServerListener;
 	private SelectorThread<L2LoginClient> _selectorThread;
+	private SelectorHelper _selectorHelper;
 	private Status _statusServer;
 	private Thread _restartLoginServer;
 	
@@ -113,7 +112,23 @@ public final class L2LoginServer
 		
 		GameServerTable.getInstance();
 		
-		loadBanFile();
+		AccountCache.getInstance();
+		AccountUpdater.getInstance();
+		AccountFilter.getInstance();
+		BruteForceDetector.getInstance();
+		IpAuthTable.getInstance();
+		AuthPipeline.getInstance();
+		WaitingRoom.getInstance();
+		
+		BanList.getInstance();
+		
+		if (Config.LOGIN_SERVER_SCHEDULE_RESTART)
+		{
+			_log.info("Scheduled LS restart after " + Config.LOGIN_SERVER_SCHEDULE_RESTART_TIME + " hours");
+			_restartLoginServer = new LoginServerRestart();
+			_restartLoginServer.setDaemon(true);
+			_restartLoginServer.start();
+		}
 		
 		if (Config.EMAIL_SYS_ENABLED)
 		{
@@ -140,10 +155,10 @@ public final class L2LoginServer
 		sc.HELPER_BUFFER_COUNT = Config.MMO_HELPER_BUFFER_COUNT;
 		
 		final L2LoginPacketHandler lph = new L2LoginPacketHandler();
-		final SelectorHelper sh = new SelectorHelper();
+		_selectorHelper = new SelectorHelper();
 		try
 		{
-			_selectorThread = new SelectorThread<>(sc, sh, lph, sh, sh);
+			_selectorThread = new SelectorThread<>(sc, _selectorHelper, lph, _selectorHelper, _selectorHelper);
 		}
 		catch (IOException e)
 		{
@@ -205,68 +220,9 @@ public final class L2LoginServer
 		return _gameServerListener;
 	}
 	
-	private void loadBanFile()
+	public SelectorHelper getSelectorHelper()
 	{
-		final File bannedFile = new File("./config/banned_ip.cfg");
-		if (bannedFile.exists() && bannedFile.isFile())
-		{
-			try (FileInputStream fis = new FileInputStream(bannedFile);
-				InputStreamReader is = new InputStreamReader(fis);
-				LineNumberReader lnr = new LineNumberReader(is))
-			{
-				//@formatter:off
-				lnr.lines()
-					.map(String::trim)
-					.filter(l -> !l.isEmpty() && (l.charAt(0) != '#'))
-					.forEach(line -> {
-						String[] parts = line.split("#", 2); // address[ duration][ # comments]
-						line = parts[0];
-						parts = line.split("\\s+"); // durations might be aligned via multiple spaces
-						String address = parts[0];
-						long duration = 0;
-						
-						if (parts.length > 1)
-						{
-							try
-							{
-								duration = Long.parseLong(parts[1]);
-							}
-							catch (NumberFormatException nfe)
-							{
-								_log.warning("Skipped: Incorrect ban duration (" + parts[1] + ") on (" + bannedFile.getName() + "). Line: " + lnr.getLineNumber());
-								return;
-							}
-						}
-						
-						try
-						{
-							LoginController.getInstance().addBanForAddress(address, duration);
-						}
-						catch (UnknownHostException e)
-						{
-							_log.warning("Skipped: Invalid address (" + address + ") on (" + bannedFile.getName() + "). Line: " + lnr.getLineNumber());
-						}
-					});
-				//@formatter:on
-			}
-			catch (IOException e)
-			{
-				_log.log(Level.WARNING, "Error while reading the bans file (" + bannedFile.getName() + "). Details: " + e.getMessage(), e);
-			}
-			_log.info("Loaded " + LoginController.getInstance().getBannedIps().size() + " IP Bans.");
-		}
-		else
-		{
-			_log.warning("IP Bans file (" + bannedFile.getName() + ") is missing or is a directory, skipped.");
-		}
-		
-		if (Config.LOGIN_SERVER_SCHEDULE_RESTART)
-		{
-			_log.info("Scheduled LS restart after " + Config.LOGIN_SERVER_SCHEDULE_RESTART_TIME + " hours");
-			_restartLoginServer = new LoginServerRestart();
-			_restartLoginServer.setDaemon(true);
-			_restartLoginServer.start();
-		}
+		return _selectorHelper;
 	}
 	
 	class LoginServerRestart extends Thread
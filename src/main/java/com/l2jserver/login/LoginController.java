@@ -24,18 +24,16 @@ import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.security.KeyPairGenerator;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.spec.RSAKeyGenParameterSpec;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -43,12 +41,21 @@ import javax.crypto.Cipher;
 
 import com.l2jserver.login.GameServerTable.GameServerInfo;
 import com.l2jserver.login.model.data.AccountInfo;
+import com.l2jserver.login.model.data.IpAuthRules;
 import com.l2jserver.login.network.L2LoginClient;
 import com.l2jserver.login.network.gameserverpackets.ServerStatus;
 import com.l2jserver.login.network.serverpackets.LoginFail.LoginFailReason;
+import com.l2jserver.login.store.AccountStore;
+import com.l2jserver.login.store.AccountStore.StoreType;
+import com.l2jserver.login.store.JdbcAccountStore;
+import com.l2jserver.login.store.MemoryAccountStore;
 import com.l2jserver.util.Rnd;
+import com.l2jserver.util.Util;
+import com.l2jserver.util.crypt.NewCrypt;
 import com.l2jserver.util.crypt.ScrambledKeyPair;
-import com.l2jserver.util.db.L2DatabaseFactory;
+import com.l2jserver.util.db.DatabaseUnavailableException;
+import com.l2jserver.util.network.IPBanTrie;
+import com.l2jserver.util.network.IPBanTrie.Network;
 
 public class LoginController
 {
@@ -62,27 +69,26 @@ public class LoginController
 	/** Authed Clients on LoginServer */
 	protected Map<String, L2LoginClient> _loginServerClients = new ConcurrentHashMap<>();
 	
-	private final Map<InetAddress, Integer> _failedLoginAttemps = new HashMap<>();
-	private final Map<InetAddress, Long> _bannedIps = new ConcurrentHashMap<>();
 	
 	protected ScrambledKeyPair[] _keyPairs;
 	
 	protected byte[][] _blowfishKeys;
+	/** Expanded Blowfish key schedules, shared read-only by every client using the key at the same index. */
+	protected NewCrypt[] _blowfishCiphers;
 	private static final int BLOWFISH_KEYS = 20;
 	
-	// SQL Queries
-	private static final String USER_INFO_SELECT = "SELECT login, password, IF(? > value OR value IS NULL, accessLevel, -1) AS accessLevel, lastServer FROM accounts LEFT JOIN (account_data) ON (account_data.account_name=accounts.login AND account_data.var=\"ban_temp\") WHERE login=?";
-	private static final String AUTOCREATE_ACCOUNTS_INSERT = "INSERT INTO accounts (login, password, lastactive, accessLevel, lastIP) values (?, ?, ?, ?, ?)";
-	private static final String ACCOUNT_INFO_UPDATE = "UPDATE accounts SET lastactive = ?, lastIP = ? WHERE login = ?";
-	private static final String ACCOUNT_LAST_SERVER_UPDATE = "UPDATE accounts SET lastServer = ? WHERE login = ?";
-	private static final String ACCOUNT_ACCESS_LEVEL_UPDATE = "UPDATE accounts SET accessLevel = ? WHERE login = ?";
-	private static final String ACCOUNT_IPS_UPDATE = "UPDATE accounts SET pcIp = ?, hop1 = ?, hop2 = ?, hop3 = ?, hop4 = ? WHERE login = ?";
-	private static final String ACCOUNT_IPAUTH_SELECT = "SELECT * FROM accounts_ipauth WHERE login = ?";
+	private final AccountStore _accountStore;
 	
 	private LoginController() throws GeneralSecurityException
 	{
 		_log.info("Loading LoginController...");
 		
+		_accountStore = Config.ACCOUNT_STORE == StoreType.MEMORY ? new MemoryAccountStore() : new JdbcAccountStore();
+		if (Config.ACCOUNT_STORE == StoreType.MEMORY)
+		{
+			_log.warning("Accounts are kept in memory only, they will be lost on shutdown!");
+		}
+		
 		_keyPairs = new ScrambledKeyPair[10];
 		
 		KeyPairGenerator keygen = null;
@@ -124,6 +130,7 @@ public class LoginController
 	private void generateBlowFishKeys()
 	{
 		_blowfishKeys = new byte[BLOWFISH_KEYS][16];
+		_blowfishCiphers = new NewCrypt[BLOWFISH_KEYS];
 		
 		for (int i = 0; i < BLOWFISH_KEYS; i++)
 		{
@@ -131,6 +138,7 @@ public class LoginController
 			{
 				_blowfishKeys[i][j] = (byte) (Rnd.nextInt(255) + 1);
 			}
+			_blowfishCiphers[i] = new NewCrypt(_blowfishKeys[i]);
 		}
 		_log.info("Stored " + _blowfishKeys.length + " keys for Blowfish communication");
 	}
@@ -143,6 +151,24 @@ public class LoginController
 		return _blowfishKeys[(int) (Math.random() * BLOWFISH_KEYS)];
 	}
 	
+	/**
+	 * Gets the precomputed cipher for one of the keys returned by {@link #getBlowfishKey()}.<br>
+	 * The key schedule is expanded only once, at startup, and the returned instance is shared between clients.
+	 * @param key the Blowfish key, as returned by {@link #getBlowfishKey()}
+	 * @return the shared cipher for the key, or a new one if the key is not a cached key
+	 */
+	public NewCrypt getBlowfishCipher(byte[] key)
+	{
+		for (int i = 0; i < BLOWFISH_KEYS; i++)
+		{
+			if (_blowfishKeys[i] == key)
+			{
+				return _blowfishCiphers[i];
+			}
+		}
+		return new NewCrypt(key);
+	}
+	
 	public SessionKey assignSessionKeyToClient(String account, L2LoginClient client)
 	{
 		SessionKey key;
@@ -166,116 +192,149 @@ public class LoginController
 		return _loginServerClients.get(account);
 	}
 	
-	public AccountInfo retriveAccountInfo(InetAddress clientAddr, String login, String password)
+	/**
+	 * @return the storage of the accounts
+	 */
+	public AccountStore getAccountStore()
 	{
-		return retriveAccountInfo(clientAddr, login, password, true);
+		return _accountStore;
 	}
 	
-	private void recordFailedLoginAttemp(InetAddress addr)
+	/**
+	 * @param clientAddr the client address
+	 * @param login the account name
+	 * @param password the plain password
+	 * @return the account info, or null if the account doesn't exist, the password is wrong or the lookup failed.<br>
+	 *         Completes exceptionally with a {@link RejectedExecutionException} when the account store is overloaded.
+	 */
+	public CompletableFuture<AccountInfo> retriveAccountInfo(InetAddress clientAddr, String login, String password)
 	{
-		// We need to synchronize this!
-		// When multiple connections from the same address fail to login at the
-		// same time, unexpected behavior can happen.
-		Integer failedLoginAttemps;
-		synchronized (_failedLoginAttemps)
+		try
 		{
-			failedLoginAttemps = _failedLoginAttemps.get(addr);
-			if (failedLoginAttemps == null)
-			{
-				failedLoginAttemps = 1;
-			}
-			else
-			{
-				++failedLoginAttemps;
-			}
-			
-			_failedLoginAttemps.put(addr, failedLoginAttemps);
+			return retriveAccountInfo(clientAddr, login, hashPassword(password), true);
 		}
-		
-		if (failedLoginAttemps >= Config.LOGIN_TRY_BEFORE_BAN)
+		catch (NoSuchAlgorithmException e)
 		{
-			addBanForAddress(addr, Config.LOGIN_BLOCK_AFTER_BAN * 1000);
-			// we need to clear the failed login attempts here, so after the ip ban is over the client has another 5 attempts
-			clearFailedLoginAttemps(addr);
-			_log.warning("Added banned address " + addr.getHostAddress() + "! Too many login attemps.");
+			_log.log(Level.WARNING, "Exception while retriving account info for '" + login + "'!", e);
+			return CompletableFuture.completedFuture(null);
 		}
 	}
 	
-	private void clearFailedLoginAttemps(InetAddress addr)
+	/**
+	 * Same as {@link #retriveAccountInfo(InetAddress, String, String)} but with the password already hashed, so the hashing can be done on a different thread than the database access.
+	 * @param clientAddr the client address
+	 * @param login the account name
+	 * @param passwordHash the password hash, as returned by {@link #hashPassword(String)}
+	 * @return the account info, or null if the account doesn't exist, the password is wrong or the lookup failed
+	 */
+	public CompletableFuture<AccountInfo> retriveAccountInfoByHash(InetAddress clientAddr, String login, String passwordHash)
+	{
+		return retriveAccountInfo(clientAddr, login, passwordHash, true);
+	}
+	
+	/**
+	 * @param password the plain password
+	 * @return the Base64 encoded SHA hash of the password, as stored in the accounts table
+	 * @throws NoSuchAlgorithmException if the SHA algorithm is not available
+	 */
+	public static String hashPassword(String password) throws NoSuchAlgorithmException
+	{
+		MessageDigest md = MessageDigest.getInstance("SHA");
+		byte[] raw = password.getBytes(StandardCharsets.UTF_8);
+		return Base64.getEncoder().encodeToString(md.digest(raw));
+	}
+	
+	private void recordFailedLoginAttemp(InetAddress addr, String login)
 	{
-		synchronized (_failedLoginAttemps)
+		if (BruteForceDetector.getInstance().recordFailure(addr, login))
 		{
-			_failedLoginAttemps.remove(addr);
+			addBanForAddress(addr, Config.LOGIN_BLOCK_AFTER_BAN * 1000);
+			_log.warning("Added banned address " + addr.getHostAddress() + "! Too many login attemps.");
 		}
 	}
 	
-	private AccountInfo retriveAccountInfo(InetAddress addr, String login, String password, boolean autoCreateIfEnabled)
+	/**
+	 * Logins of an account with too many failed logins are refused whatever the password, unless they come from a network the account logged in from recently.<br>
+	 * Refused logins are not counted as failures, so they neither extend the lockout nor get the address banned.
+	 * @param addr the client address
+	 * @param login the account name
+	 * @return true if the account is locked for this address
+	 */
+	public boolean isAccountLocked(InetAddress addr, String login)
 	{
-		try
+		return BruteForceDetector.getInstance().isAccountLocked(addr, login);
+	}
+	
+	private CompletableFuture<AccountInfo> retriveAccountInfo(InetAddress addr, String login, String hashBase64, boolean autoCreateIfEnabled)
+	{
+		final AccountInfo cached = AccountCache.getInstance().get(login);
+		if ((cached != null) && cached.checkPassHash(hashBase64))
 		{
-			MessageDigest md = MessageDigest.getInstance("SHA");
-			byte[] raw = password.getBytes(StandardCharsets.UTF_8);
-			String hashBase64 = Base64.getEncoder().encodeToString(md.digest(raw));
-			
-			try (Connection con = L2DatabaseFactory.getInstance().getConnection();
-				PreparedStatement ps = con.prepareStatement(USER_INFO_SELECT))
+			BruteForceDetector.getInstance().recordSuccess(addr, login);
+			return CompletableFuture.completedFuture(cached);
+		}
+		// on a wrong password the database is checked anyway, the password may have been changed outside of the login server
+		final long cacheVersion = AccountCache.getInstance().getVersion();
+		
+		if (!AccountFilter.getInstance().allowLookup(login))
+		{
+			// unknown account and too many of them already
+			recordFailedLoginAttemp(addr, login);
+			return CompletableFuture.completedFuture(null);
+		}
+		
+		return _accountStore.findAccount(login).thenCompose((info) ->
+		{
+			if (info != null)
 			{
-				ps.setString(1, Long.toString(System.currentTimeMillis()));
-				ps.setString(2, login);
-				try (ResultSet rset = ps.executeQuery())
+				if (Config.DEBUG)
 				{
-					if (rset.next())
-					{
-						if (Config.DEBUG)
-						{
-							_log.fine("Account '" + login + "' exists.");
-						}
-						
-						AccountInfo info = new AccountInfo(rset.getString("login"), rset.getString("password"), rset.getInt("accessLevel"), rset.getInt("lastServer"));
-						if (!info.checkPassHash(hashBase64))
-						{
-							// wrong password
-							recordFailedLoginAttemp(addr);
-							return null;
-						}
-						
-						clearFailedLoginAttemps(addr);
-						return info;
-					}
+					_log.fine("Account '" + login + "' exists.");
 				}
+				// may have been created by an external tool since the filter was loaded
+				AccountFilter.getInstance().add(login);
+				
+				if (!info.checkPassHash(hashBase64))
+				{
+					// wrong password
+					recordFailedLoginAttemp(addr, login);
+					return CompletableFuture.completedFuture(null);
+				}
+				
+				BruteForceDetector.getInstance().recordSuccess(addr, login);
+				AccountCache.getInstance().put(info, cacheVersion);
+				return CompletableFuture.completedFuture(info);
 			}
 			
 			if (!autoCreateIfEnabled || !Config.AUTO_CREATE_ACCOUNTS)
 			{
 				// account does not exist and auto create account is not desired
-				recordFailedLoginAttemp(addr);
-				return null;
+				recordFailedLoginAttemp(addr, login);
+				return CompletableFuture.completedFuture(null);
 			}
 			
-			try (Connection con = L2DatabaseFactory.getInstance().getConnection();
-				PreparedStatement ps = con.prepareStatement(AUTOCREATE_ACCOUNTS_INSERT))
+			return _accountStore.createAccount(login, hashBase64, addr.getHostAddress()).thenCompose((v) ->
+			{
+				_log.info("Auto created account '" + login + "'.");
+				AccountFilter.getInstance().add(login);
+				AccountCache.getInstance().invalidate(login);
+				return retriveAccountInfo(addr, login, hashBase64, false);
+			});
+		}).exceptionally((e) ->
+		{
+			final Throwable cause = Util.unwrapCompletion(e);
+			if (cause instanceof RejectedExecutionException)
 			{
-				ps.setString(1, login);
-				ps.setString(2, hashBase64);
-				ps.setLong(3, System.currentTimeMillis());
-				ps.setInt(4, 0);
-				ps.setString(5, addr.getHostAddress());
-				ps.execute();
+				// the caller tells the client the server is overloaded
+				throw new CompletionException(cause);
 			}
-			catch (Exception e)
+			if (!(cause instanceof DatabaseUnavailableException))
 			{
-				_log.log(Level.WARNING, "Exception while auto creating account for '" + login + "'!", e);
-				return null;
+				// otherwise already reported by the database factory
+				_log.log(Level.WARNING, "Exception while retriving account info for '" + login + "'!", cause);
 			}
-			
-			_log.info("Auto created account '" + login + "'.");
-			return retriveAccountInfo(addr, login, password, false);
-		}
-		catch (Exception e)
-		{
-			_log.log(Level.WARNING, "Exception while retriving account info for '" + login + "'!", e);
 			return null;
-		}
+		});
 	}
 	
 	public AuthLoginResult tryCheckinAccount(L2LoginClient client, InetAddress address, AccountInfo info)
@@ -307,13 +366,14 @@ public class LoginController
 	
 	/**
 	 * Adds the address to the ban list of the login server, with the given end time in milliseconds.
-	 * @param address The Address to be banned.
-	 * @param expiration Timestamp in milliseconds when this ban expires
+	 * @param address The Address to be banned, or a network in CIDR notation, see {@link IPBanTrie#parse(String)}.
+	 * @param expiration Timestamp in milliseconds when this ban expires, 0 for a permanent ban
 	 * @throws UnknownHostException if the address is invalid.
 	 */
 	public void addBanForAddress(String address, long expiration) throws UnknownHostException
 	{
-		_bannedIps.putIfAbsent(InetAddress.getByName(address), expiration);
+		final Network network = IPBanTrie.parse(address);
+		BanList.getInstance().add(network.getAddress(), network.getPrefixLength(), expiration);
 	}
 	
 	/**
@@ -323,41 +383,29 @@ public class LoginController
 	 */
 	public void addBanForAddress(InetAddress address, long duration)
 	{
-		_bannedIps.putIfAbsent(address, System.currentTimeMillis() + duration);
+		final byte[] raw = address.getAddress();
+		BanList.getInstance().add(raw, raw.length * 8, System.currentTimeMillis() + duration);
 	}
 	
 	public boolean isBannedAddress(InetAddress address)
 	{
-		String[] parts = address.getHostAddress().split("\\.");
-		Long bi = _bannedIps.get(address);
-		if (bi == null)
-		{
-			bi = _bannedIps.get(parts[0] + "." + parts[1] + "." + parts[2] + ".0");
-		}
-		if (bi == null)
-		{
-			bi = _bannedIps.get(parts[0] + "." + parts[1] + ".0.0");
-		}
-		if (bi == null)
-		{
-			bi = _bannedIps.get(parts[0] + ".0.0.0");
-		}
-		if (bi != null)
-		{
-			if ((bi > 0) && (bi < System.currentTimeMillis()))
-			{
-				_bannedIps.remove(address);
-				_log.info("Removed expired ip address ban " + address.getHostAddress() + ".");
-				return false;
-			}
-			return true;
-		}
-		return false;
+		return BanList.getInstance().isBanned(address.getAddress(), System.currentTimeMillis());
+	}
+	
+	/**
+	 * @return the number of banned networks
+	 */
+	public int getBannedIpCount()
+	{
+		return BanList.getInstance().size();
 	}
 	
-	public Map<InetAddress, Long> getBannedIps()
+	/**
+	 * @return the bans not over yet, with their number by remaining duration
+	 */
+	public BanList.Snapshot getBannedIps()
 	{
-		return _bannedIps;
+		return BanList.getInstance().getSnapshot();
 	}
 	
 	/**
@@ -367,19 +415,21 @@ public class LoginController
 	 */
 	public boolean removeBanForAddress(InetAddress address)
 	{
-		return _bannedIps.remove(address.getHostAddress()) != null;
+		final byte[] raw = address.getAddress();
+		return BanList.getInstance().remove(raw, raw.length * 8);
 	}
 	
 	/**
-	 * Remove the specified address from the ban list
-	 * @param address The address to be removed from the ban list
+	 * Remove the specified address or network from the ban list
+	 * @param address The address or network in CIDR notation to be removed from the ban list
 	 * @return true if the ban was removed, false if there was no ban for this ip or the address was invalid.
 	 */
 	public boolean removeBanForAddress(String address)
 	{
 		try
 		{
-			return this.removeBanForAddress(InetAddress.getByName(address));
+			final Network network = IPBanTrie.parse(address);
+			return BanList.getInstance().remove(network.getAddress(), network.getPrefixLength());
 		}
 		catch (UnknownHostException e)
 		{
@@ -452,55 +502,65 @@ public class LoginController
 			
 			if (loginOk && (client.getLastServer() != serverId))
 			{
-				try (Connection con = L2DatabaseFactory.getInstance().getConnection();
-					PreparedStatement ps = con.prepareStatement(ACCOUNT_LAST_SERVER_UPDATE))
-				{
-					ps.setInt(1, serverId);
-					ps.setString(2, client.getAccount());
-					ps.executeUpdate();
-				}
-				catch (Exception e)
-				{
-					_log.log(Level.WARNING, "Could not set lastServer: " + e.getMessage(), e);
-				}
+				final String account = client.getAccount();
+				AccountCache.getInstance().updateLastServer(account, serverId);
+				reportFailure(_accountStore.updateLastServer(account, serverId), "Could not set lastServer of " + account);
 			}
 			return loginOk;
 		}
 		return false;
 	}
 	
-	public void setAccountAccessLevel(String account, int banLevel)
+	/**
+	 * @param account the account name
+	 * @param banLevel the new access level
+	 * @return the completion of the update, the cached account is dropped once it is done
+	 */
+	public CompletableFuture<Void> setAccountAccessLevel(String account, int banLevel)
 	{
-		try (Connection con = L2DatabaseFactory.getInstance().getConnection();
-			PreparedStatement ps = con.prepareStatement(ACCOUNT_ACCESS_LEVEL_UPDATE))
-		{
-			ps.setInt(1, banLevel);
-			ps.setString(2, account);
-			ps.executeUpdate();
-		}
-		catch (Exception e)
-		{
-			_log.log(Level.WARNING, "Could not set accessLevel: " + e.getMessage(), e);
-		}
+		return _accountStore.setAccessLevel(account, banLevel).whenComplete((v, e) -> AccountCache.getInstance().invalidate(account));
+	}
+	
+	/**
+	 * @param account the account name
+	 * @param banEnd time in milliseconds when the ban is over
+	 * @return the completion of the update, the cached account is dropped once it is done
+	 */
+	public CompletableFuture<Void> setAccountTempBan(String account, long banEnd)
+	{
+		return _accountStore.setTempBan(account, banEnd).whenComplete((v, e) -> AccountCache.getInstance().invalidate(account));
+	}
+	
+	/**
+	 * @param account the account name
+	 * @param currentHash hash of the current password
+	 * @param newHash hash of the new password
+	 * @return true if the password was changed, false if the current password doesn't match. The cached account is dropped once it is done.
+	 */
+	public CompletableFuture<Boolean> changeAccountPassword(String account, String currentHash, String newHash)
+	{
+		return _accountStore.changePassword(account, currentHash, newHash).whenComplete((changed, e) -> AccountCache.getInstance().invalidate(account));
 	}
 	
 	public void setAccountLastTracert(String account, String pcIp, String hop1, String hop2, String hop3, String hop4)
 	{
-		try (Connection con = L2DatabaseFactory.getInstance().getConnection();
-			PreparedStatement ps = con.prepareStatement(ACCOUNT_IPS_UPDATE))
-		{
-			ps.setString(1, pcIp);
-			ps.setString(2, hop1);
-			ps.setString(3, hop2);
-			ps.setString(4, hop3);
-			ps.setString(5, hop4);
-			ps.setString(6, account);
-			ps.executeUpdate();
-		}
-		catch (Exception e)
+		reportFailure(_accountStore.updateLastTracert(account, pcIp, hop1, hop2, hop3, hop4), "Could not set tracert of " + account);
+	}
+	
+	/**
+	 * Logs the failure of an update nobody waits for.
+	 * @param update the update
+	 * @param message the log message
+	 */
+	private static void reportFailure(CompletableFuture<?> update, String message)
+	{
+		update.whenComplete((v, e) ->
 		{
-			_log.log(Level.WARNING, "Could not set last tracert: " + e.getMessage(), e);
-		}
+			if ((e != null) && !(Util.unwrapCompletion(e) instanceof DatabaseUnavailableException))
+			{
+				_log.log(Level.WARNING, message + ": " + e.getMessage(), Util.unwrapCompletion(e));
+			}
+		});
 	}
 	
 	public void setCharactersOnServer(String account, int charsNum, long[] timeToDel, int serverId)
@@ -544,62 +604,23 @@ public class LoginController
 	{
 		try
 		{
-			List<InetAddress> ipWhiteList = new ArrayList<>();
-			List<InetAddress> ipBlackList = new ArrayList<>();
-			try (Connection con = L2DatabaseFactory.getInstance().getConnection();
-				PreparedStatement ps = con.prepareStatement(ACCOUNT_IPAUTH_SELECT))
+			// Check IP
+			final IpAuthRules rules = IpAuthTable.getInstance().getRules(info.getLogin());
+			if (rules.hasAllowRules() && !rules.isAllowed(address))
 			{
-				ps.setString(1, info.getLogin());
-				try (ResultSet rset = ps.executeQuery())
-				{
-					String ip, type;
-					while (rset.next())
-					{
-						ip = rset.getString("ip");
-						type = rset.getString("type");
-						
-						if (!isValidIPAddress(ip))
-						{
-							continue;
-						}
-						else if (type.equals("allow"))
-						{
-							ipWhiteList.add(InetAddress.getByName(ip));
-						}
-						else if (type.equals("deny"))
-						{
-							ipBlackList.add(InetAddress.getByName(ip));
-						}
-					}
-				}
+				_log.warning("Account checkin attemp from address(" + address.getHostAddress() + ") not present on whitelist for account '" + info.getLogin() + "'.");
+				return false;
 			}
 			
-			// Check IP
-			if (!ipWhiteList.isEmpty() || !ipBlackList.isEmpty())
+			if (rules.isDenied(address))
 			{
-				if (!ipWhiteList.isEmpty() && !ipWhiteList.contains(address))
-				{
-					_log.warning("Account checkin attemp from address(" + address.getHostAddress() + ") not present on whitelist for account '" + info.getLogin() + "'.");
-					return false;
-				}
-				
-				if (!ipBlackList.isEmpty() && ipBlackList.contains(address))
-				{
-					_log.warning("Account checkin attemp from address(" + address.getHostAddress() + ") on blacklist for account '" + info.getLogin() + "'.");
-					return false;
-				}
+				_log.warning("Account checkin attemp from address(" + address.getHostAddress() + ") on blacklist for account '" + info.getLogin() + "'.");
+				return false;
 			}
 			
 			client.setAccessLevel(info.getAccessLevel());
 			client.setLastServer(info.getLastServer());
-			try (Connection con = L2DatabaseFactory.getInstance().getConnection();
-				PreparedStatement ps = con.prepareStatement(ACCOUNT_INFO_UPDATE))
-			{
-				ps.setLong(1, System.currentTimeMillis());
-				ps.setString(2, address.getHostAddress());
-				ps.setString(3, info.getLogin());
-				ps.execute();
-			}
+			reportFailure(_accountStore.updateLastActive(info.getLogin(), System.currentTimeMillis(), address.getHostAddress()), "Could not set lastactive of " + info.getLogin());
 			
 			return true;
 		}
@@ -27,11 +27,13 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.sql.SQLException;
 import java.util.Map;
 import java.util.Properties;
 import java.util.logging.Logger;
 
 import com.l2jserver.login.GameServerTable.GameServerInfo;
+import com.l2jserver.util.db.L2DatabaseFactory;
 
 public class LoginStatusThread extends Thread
 {
@@ -199,6 +201,8 @@ public class LoginStatusThread extends Thread
 					_print.println("help                - shows this help.");
 					_print.println("status              - displays basic server statistics.");
 					_print.println("unblock <ip>        - removes <ip> from banlist.");
+					_print.println("bans                - counts the IP bans by remaining duration.");
+					_print.println("reload ipauth [account] - reloads the ipauth rules of all accounts or of <account>.");
 					_print.println("shutdown			- shuts down server.");
 					_print.println("restart				- restarts the server.");
 					_print.println("RedirectLogger		- Telnet will give you some info about server in real time.");
@@ -230,6 +234,33 @@ public class LoginStatusThread extends Thread
 							_print.println();
 						});
 					}
+					
+					_print.println("=== Auth Pipeline ===");
+					_print.println(L2LoginServer.getInstance().getSelectorHelper().getIPv4Filter());
+					_print.println(AuthPipeline.getInstance().getCryptoStage());
+					_print.println(AuthPipeline.getInstance().getAccountStage());
+					_print.println(AdmissionController.getInstance());
+					_print.println(WaitingRoom.getInstance());
+					_print.println(LoginController.getInstance().getAccountStore());
+					_print.println(AccountCache.getInstance());
+					_print.println(AccountLookupBatcher.getInstance());
+					_print.println(AccountFilter.getInstance());
+					_print.println(BruteForceDetector.getInstance());
+					_print.println(BanList.getInstance());
+					_print.println(AccountUpdater.getInstance());
+					try
+					{
+						_print.println(L2DatabaseFactory.getInstance().getPoolStatus());
+						_print.println(L2DatabaseFactory.getInstance().getCircuitBreaker());
+					}
+					catch (SQLException e)
+					{
+						_print.println("Database: " + e.getMessage());
+					}
+				}
+				else if (_usrCommand.equals("bans"))
+				{
+					_print.println(LoginController.getInstance().getBannedIps());
 				}
 				else if (_usrCommand.startsWith("unblock"))
 				{
@@ -251,6 +282,26 @@ public class LoginStatusThread extends Thread
 						_print.println("Please Enter the IP to Unblock!");
 					}
 				}
+				else if (_usrCommand.startsWith("reload ipauth"))
+				{
+					final String account = _usrCommand.substring(13).trim();
+					if (account.isEmpty())
+					{
+						if (IpAuthTable.getInstance().reload())
+						{
+							_print.println("Reloaded the ipauth rules.");
+						}
+						else
+						{
+							_print.println("Could not reload the ipauth rules, see the log.");
+						}
+					}
+					else
+					{
+						IpAuthTable.getInstance().reload(account);
+						_print.println("Reloaded the ipauth rules of " + account + ".");
+					}
+				}
 				else if (_usrCommand.startsWith("shutdown"))
 				{
 					L2LoginServer.getInstance().shutdown(false);
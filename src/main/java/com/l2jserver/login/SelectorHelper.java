@@ -18,18 +18,27 @@
  */
 package com.l2jserver.login;
 
+import java.lang.reflect.Method;
+import java.net.InetAddress;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 
 import com.l2jserver.login.network.L2LoginClient;
+import com.l2jserver.login.network.clientpackets.AuthGameGuard;
+import com.l2jserver.login.network.clientpackets.RequestAuthLogin;
 import com.l2jserver.login.network.serverpackets.Init;
+import com.l2jserver.login.network.serverpackets.LoginFail.LoginFailReason;
 import com.l2jserver.mmocore.IAcceptFilter;
 import com.l2jserver.mmocore.IClientFactory;
 import com.l2jserver.mmocore.IMMOExecutor;
 import com.l2jserver.mmocore.MMOConnection;
 import com.l2jserver.mmocore.ReceivablePacket;
+import com.l2jserver.util.SerialExecutor;
 import com.l2jserver.util.network.IPv4Filter;
 
 /**
@@ -37,25 +46,120 @@ import com.l2jserver.util.network.IPv4Filter;
  */
 public class SelectorHelper implements IMMOExecutor<L2LoginClient>, IClientFactory<L2LoginClient>, IAcceptFilter
 {
+	private static final Logger _log = Logger.getLogger(SelectorHelper.class.getName());
+	
+	/**
+	 * How client packets are executed.
+	 */
+	public static enum ExecutionMode
+	{
+		/** Platform thread pool, login requests go through the {@link AuthPipeline} stages. */
+		POOL,
+		/** One virtual thread per packet. */
+		VIRTUAL,
+		/** Virtual threads, packets of the same connection run one at a time in arrival order. */
+		VIRTUAL_PER_CONNECTION
+	}
+	
 	private final ThreadPoolExecutor _generalPacketsThreadPool;
+	private final Executor _virtualThreadExecutor;
 	private final IPv4Filter _ipv4filter;
 	
 	public SelectorHelper()
 	{
 		_generalPacketsThreadPool = new ThreadPoolExecutor(4, 6, 15L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
-		_ipv4filter = new IPv4Filter();
+		_virtualThreadExecutor = Config.PACKET_EXECUTION_MODE != ExecutionMode.POOL ? newVirtualThreadExecutor() : null;
+		if ((Config.PACKET_EXECUTION_MODE != ExecutionMode.POOL) && (_virtualThreadExecutor == null))
+		{
+			_log.warning("Virtual threads are not supported by this Java version, packets will be executed on the thread pool.");
+			Config.PACKET_EXECUTION_MODE = ExecutionMode.POOL;
+		}
+		_log.info("Client packets execution mode: " + Config.PACKET_EXECUTION_MODE);
+		_ipv4filter = new IPv4Filter(Config.ACCEPT_BURST, Config.ACCEPT_RATE, Config.ACCEPT_MAX_CONNECTIONS_PER_IP, Config.ACCEPT_FILTER_SIZE);
+	}
+	
+	public IPv4Filter getIPv4Filter()
+	{
+		return _ipv4filter;
+	}
+	
+	/**
+	 * Virtual threads are available since Java 21, they are looked up by reflection so the server still builds and runs on older versions.
+	 * @return a virtual thread per task executor, or {@code null} if not supported
+	 */
+	private static Executor newVirtualThreadExecutor()
+	{
+		try
+		{
+			final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (Executor) factory.invoke(null);
+		}
+		catch (ReflectiveOperationException e)
+		{
+			return null;
+		}
 	}
 	
 	@Override
 	public void execute(ReceivablePacket<L2LoginClient> packet)
 	{
-		_generalPacketsThreadPool.execute(packet);
+		if (packet instanceof AuthGameGuard)
+		{
+			// first packet of a new handshake
+			if (Config.WAITING_ROOM)
+			{
+				if (!WaitingRoom.getInstance().enter(packet.getClient(), () -> dispatch(packet)))
+				{
+					packet.getClient().close(LoginFailReason.REASON_SERVER_OVERLOADED);
+				}
+				return;
+			}
+			
+			if (!AdmissionController.getInstance().admitConnection())
+			{
+				// let the clients already authed on GameGuard go first
+				packet.getClient().close(LoginFailReason.REASON_SERVER_OVERLOADED);
+				return;
+			}
+		}
+		dispatch(packet);
+	}
+	
+	private void dispatch(ReceivablePacket<L2LoginClient> packet)
+	{
+		switch (Config.PACKET_EXECUTION_MODE)
+		{
+			case VIRTUAL:
+				_virtualThreadExecutor.execute(packet);
+				break;
+			case VIRTUAL_PER_CONNECTION:
+				packet.getClient().getPacketExecutor().execute(packet);
+				break;
+			default:
+				if (packet instanceof RequestAuthLogin)
+				{
+					// the login request is the expensive one, it goes through the auth pipeline
+					if (!AdmissionController.getInstance().admitLogin() || !AuthPipeline.getInstance().getCryptoStage().execute(packet))
+					{
+						packet.getClient().close(LoginFailReason.REASON_SERVER_OVERLOADED);
+					}
+					break;
+				}
+				_generalPacketsThreadPool.execute(packet);
+				break;
+		}
 	}
 	
 	@Override
 	public L2LoginClient create(MMOConnection<L2LoginClient> con)
 	{
 		L2LoginClient client = new L2LoginClient(con);
+		final InetAddress address = con.getInetAddress();
+		client.setDisconnectionTask(() -> _ipv4filter.release(address));
+		if (Config.PACKET_EXECUTION_MODE == ExecutionMode.VIRTUAL_PER_CONNECTION)
+		{
+			client.setPacketExecutor(new SerialExecutor(_virtualThreadExecutor));
+		}
 		client.sendPacket(new Init(client));
 		return client;
 	}
@@ -63,6 +167,16 @@ public class SelectorHelper implements IMMOExecutor<L2LoginClient>, IClientFacto
 	@Override
 	public boolean accept(SocketChannel sc)
 	{
-		return _ipv4filter.accept(sc) && !LoginController.getInstance().isBannedAddress(sc.socket().getInetAddress());
+		final InetAddress address = sc.socket().getInetAddress();
+		if (LoginController.getInstance().isBannedAddress(address) || !_ipv4filter.accept(address))
+		{
+			return false;
+		}
+		if (!AdmissionController.getInstance().admitConnection())
+		{
+			_ipv4filter.release(address);
+			return false;
+		}
+		return true;
 	}
 }
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.login;
+
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import com.l2jserver.login.network.L2LoginClient;
+
+/**
+ * Holds new connections during overload and lets them into the login process in arrival order, at the pace the server can handle.<br>
+ * Clients wait in {@code CONNECTED} state with their GameGuard authentication pending. Addresses are served round robin, so a single subnet can't take the whole room.<br>
+ * The number of clients between admission and the end of their login is limited, and the limit follows the measured login latency: it grows while logins finish within the target latency and shrinks when they don't.
+ */
+public final class WaitingRoom implements Runnable
+{
+	private static final Logger _log = Logger.getLogger(WaitingRoom.class.getName());
+	
+	private static final int INITIAL_LIMIT = 16;
+	private static final int MIN_LIMIT = 4;
+	private static final int MAX_LIMIT = 4096;
+	/** Time between limit adjustments, in milliseconds. */
+	private static final long ADJUST_INTERVAL = 250;
+	/** Weight of the newest latency sample in the moving average, 1/8. */
+	private static final int EWMA_SHIFT = 3;
+	
+	private final Object _lock = new Object();
+	/** Addresses with waiting clients, in the order they will be served. */
+	private final ArrayDeque<AddressQueue> _addresses = new ArrayDeque<>();
+	private final Map<InetAddress, AddressQueue> _queuesByAddress = new HashMap<>();
+	private int _waiting;
+	
+	/** Admitted clients that didn't finish their login yet, with their admission time. */
+	private final Map<L2LoginClient, Long> _admitted = new ConcurrentHashMap<>();
+	private volatile int _limit = INITIAL_LIMIT;
+	/** Moving average in milliseconds, updated under the lock. */
+	private volatile long _recentLatency;
+	/** Logins finished since the last adjustment of the limit. */
+	private int _completions;
+	private long _lastAdjust;
+	
+	protected WaitingRoom()
+	{
+		if (Config.WAITING_ROOM)
+		{
+			final Thread dispatcher = new Thread(this, "WaitingRoom");
+			dispatcher.setDaemon(true);
+			dispatcher.start();
+			_log.info("Waiting room enabled, " + Config.WAITING_ROOM_SIZE + " places.");
+		}
+	}
+	
+	/**
+	 * Puts the client in the room, the task will run once the client is admitted.
+	 * @param client the client
+	 * @param task the task that starts the login process
+	 * @return true if the client is waiting or was admitted right away, false if there is no room left for it
+	 */
+	public boolean enter(L2LoginClient client, Runnable task)
+	{
+		synchronized (_lock)
+		{
+			if ((_waiting == 0) && (_admitted.size() < _limit))
+			{
+				// nobody is waiting and there is capacity, skip the queue
+				admit(client, task);
+				return true;
+			}
+			
+			if (_waiting >= Config.WAITING_ROOM_SIZE)
+			{
+				return false;
+			}
+			
+			final InetAddress address = client.getConnection().getInetAddress();
+			AddressQueue queue = _queuesByAddress.get(address);
+			if (queue == null)
+			{
+				queue = new AddressQueue(address);
+				_queuesByAddress.put(address, queue);
+				_addresses.addLast(queue);
+			}
+			else if (queue._entries.size() >= Config.WAITING_ROOM_MAX_PER_IP)
+			{
+				return false;
+			}
+			
+			queue._entries.addLast(new WaitingClient(client, task));
+			_waiting++;
+			_lock.notify();
+		}
+		return true;
+	}
+	
+	/**
+	 * Releases the place taken by an admitted client, when its login is over, successfully or not.
+	 * @param client the client
+	 */
+	public void leave(L2LoginClient client)
+	{
+		final Long admittedTime = _admitted.remove(client);
+		if (admittedTime != null)
+		{
+			final long latency = System.currentTimeMillis() - admittedTime;
+			synchronized (_lock)
+			{
+				_recentLatency += (latency - _recentLatency) >> EWMA_SHIFT;
+				_completions++;
+				_lock.notify();
+			}
+		}
+	}
+	
+	@Override
+	public void run()
+	{
+		while (true)
+		{
+			final WaitingClient next;
+			synchronized (_lock)
+			{
+				try
+				{
+					while ((_waiting == 0) || (_admitted.size() >= _limit))
+					{
+						_lock.wait(ADJUST_INTERVAL);
+						adjustLimit();
+					}
+				}
+				catch (InterruptedException e)
+				{
+					return;
+				}
+				adjustLimit();
+				next = poll();
+			}
+			
+			if (!next._client.getConnection().isClosed())
+			{
+				admit(next._client, next._task);
+			}
+		}
+	}
+	
+	/**
+	 * Takes the first client of the next address, the address goes back to the end of the line if it has more clients waiting.
+	 * @return the next client to admit
+	 */
+	private WaitingClient poll()
+	{
+		final AddressQueue queue = _addresses.pollFirst();
+		final WaitingClient next = queue._entries.pollFirst();
+		if (queue._entries.isEmpty())
+		{
+			_queuesByAddress.remove(queue._address);
+		}
+		else
+		{
+			_addresses.addLast(queue);
+		}
+		_waiting--;
+		return next;
+	}
+	
+	private void admit(L2LoginClient client, Runnable task)
+	{
+		_admitted.put(client, System.currentTimeMillis());
+		task.run();
+	}
+	
+	/**
+	 * Additive increase while the limit is in use and logins are fast enough, multiplicative decrease when they are too slow.<br>
+	 * The limit only grows when logins finished since the last adjustment and none of the admitted clients waits for longer than the target latency, so it doesn't grow while the backend is stuck and nobody leaves.
+	 */
+	private void adjustLimit()
+	{
+		final long now = System.currentTimeMillis();
+		if ((now - _lastAdjust) < ADJUST_INTERVAL)
+		{
+			return;
+		}
+		_lastAdjust = now;
+		final int completions = _completions;
+		_completions = 0;
+		
+		if (_recentLatency > Config.WAITING_ROOM_TARGET_LATENCY)
+		{
+			_limit = Math.max(MIN_LIMIT, (_limit * 3) / 4);
+		}
+		else if ((_admitted.size() >= _limit) && (completions > 0) && ((now - getOldestAdmission(now)) <= Config.WAITING_ROOM_TARGET_LATENCY))
+		{
+			_limit = Math.min(MAX_LIMIT, _limit + 1);
+		}
+	}
+	
+	/**
+	 * @param now the current time
+	 * @return the admission time of the client admitted first among those still in their login, now if there are none
+	 */
+	private long getOldestAdmission(long now)
+	{
+		long oldest = now;
+		for (long admission : _admitted.values())
+		{
+			oldest = Math.min(oldest, admission);
+		}
+		return oldest;
+	}
+	
+	/**
+	 * @return true if a new client can still enter the room
+	 */
+	public boolean hasRoom()
+	{
+		return getWaitingCount() < Config.WAITING_ROOM_SIZE;
+	}
+	
+	public int getWaitingCount()
+	{
+		synchronized (_lock)
+		{
+			return _waiting;
+		}
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "Waiting room: " + (Config.WAITING_ROOM ? "enabled" : "disabled") + ", waiting " + getWaitingCount() + ", admitted " + _admitted.size() + "/" + _limit + ", login latency " + _recentLatency + " ms";
+	}
+	
+	private static final class AddressQueue
+	{
+		protected final InetAddress _address;
+		protected final ArrayDeque<WaitingClient> _entries = new ArrayDeque<>();
+		
+		public AddressQueue(InetAddress address)
+		{
+			_address = address;
+		}
+	}
+	
+	private static final class WaitingClient
+	{
+		protected final L2LoginClient _client;
+		protected final Runnable _task;
+		
+		public WaitingClient(L2LoginClient client, Runnable task)
+		{
+			_client = client;
+			_task = task;
+		}
+	}
+	
+	public static WaitingRoom getInstance()
+	{
+		return SingletonHolder._instance;
+	}
+	
+	private static class SingletonHolder
+	{
+		protected static final WaitingRoom _instance = new WaitingRoom();
+	}
+}
@@ -127,7 +127,7 @@ public class BaseMail implements Runnable
 	
 	private String getUserMail(String username)
 	{
-		try (Connection con = L2DatabaseFactory.getInstance().getConnection();
+		try (Connection con = L2DatabaseFactory.getInstance().getReadConnection();
 			PreparedStatement statement = con.prepareStatement(Config.EMAIL_SYS_SELECTQUERY))
 		{
 			statement.setString(1, username);
@@ -50,6 +50,15 @@ public final class AccountInfo
 		_lastServer = lastServer;
 	}
 	
+	/**
+	 * @param lastServer the id of the last game server the account went to
+	 * @return a copy of this account info with another last server
+	 */
+	public AccountInfo withLastServer(final int lastServer)
+	{
+		return new AccountInfo(_login, _passHash, _accessLevel, lastServer);
+	}
+	
 	public boolean checkPassHash(final String passHash)
 	{
 		return _passHash.equals(passHash);
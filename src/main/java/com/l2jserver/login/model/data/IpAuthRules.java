@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.login.model.data;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.Arrays;
+
+/**
+ * The accounts_ipauth rules of an account, IPv4 addresses or CIDR ranges ({@code 10.0.0.0/8}) allowed or denied to log in the account.<br>
+ * Ranges are grouped by prefix length, so matching an address costs one binary search per distinct prefix length.
+ */
+public final class IpAuthRules
+{
+	/** Rules of the accounts without any. */
+	public static final IpAuthRules NONE = new IpAuthRules();
+	
+	private final PrefixSet _allowed = new PrefixSet();
+	private final PrefixSet _denied = new PrefixSet();
+	
+	/**
+	 * Adds a rule, invalid rules are ignored.
+	 * @param ip the address or range
+	 * @param type allow or deny
+	 * @return true if the rule was valid
+	 */
+	public boolean addRule(String ip, String type)
+	{
+		if (this == NONE)
+		{
+			throw new UnsupportedOperationException("NONE is shared.");
+		}
+		if ((ip == null) || (type == null))
+		{
+			return false;
+		}
+		
+		final PrefixSet set;
+		if (type.equals("allow"))
+		{
+			set = _allowed;
+		}
+		else if (type.equals("deny"))
+		{
+			set = _denied;
+		}
+		else
+		{
+			return false;
+		}
+		
+		final int slash = ip.indexOf('/');
+		final long address = parseAddress(slash < 0 ? ip : ip.substring(0, slash));
+		int prefix = 32;
+		if (slash >= 0)
+		{
+			try
+			{
+				prefix = Integer.parseInt(ip.substring(slash + 1));
+			}
+			catch (NumberFormatException e)
+			{
+				return false;
+			}
+		}
+		if ((address < 0) || (prefix < 0) || (prefix > 32))
+		{
+			return false;
+		}
+		set.add((int) address, prefix);
+		return true;
+	}
+	
+	/**
+	 * @return true if the account can only be logged from the allowed addresses
+	 */
+	public boolean hasAllowRules()
+	{
+		return !_allowed.isEmpty();
+	}
+	
+	public boolean isAllowed(InetAddress address)
+	{
+		return (address instanceof Inet4Address) && _allowed.contains(toInt(address));
+	}
+	
+	public boolean isDenied(InetAddress address)
+	{
+		return (address instanceof Inet4Address) && _denied.contains(toInt(address));
+	}
+	
+	private static int toInt(InetAddress address)
+	{
+		final byte[] raw = address.getAddress();
+		return ((raw[0] & 0xFF) << 24) | ((raw[1] & 0xFF) << 16) | ((raw[2] & 0xFF) << 8) | (raw[3] & 0xFF);
+	}
+	
+	/**
+	 * @param ip a dotted IPv4 address
+	 * @return the address as an unsigned value, -1 if it's invalid
+	 */
+	private static long parseAddress(String ip)
+	{
+		final String[] parts = ip.split("\\.");
+		if (parts.length != 4)
+		{
+			return -1;
+		}
+		
+		long address = 0;
+		for (String part : parts)
+		{
+			final int value;
+			try
+			{
+				value = Integer.parseInt(part);
+			}
+			catch (NumberFormatException e)
+			{
+				return -1;
+			}
+			if ((value < 0) || (value > 255))
+			{
+				return -1;
+			}
+			address = (address << 8) | value;
+		}
+		return address;
+	}
+	
+	/**
+	 * Networks grouped by prefix length, each group a sorted array of network addresses.
+	 */
+	private static final class PrefixSet
+	{
+		/** Bit n set when there are networks with prefix length n. */
+		private long _prefixes;
+		private final int[][] _networks = new int[33][];
+		
+		public void add(int address, int prefix)
+		{
+			final int network = address & mask(prefix);
+			final int[] networks = _networks[prefix];
+			if (networks == null)
+			{
+				_networks[prefix] = new int[]
+				{
+					network
+				};
+				_prefixes |= 1L << prefix;
+				return;
+			}
+			
+			final int index = Arrays.binarySearch(networks, network);
+			if (index >= 0)
+			{
+				return;
+			}
+			final int insertion = -index - 1;
+			final int[] grown = new int[networks.length + 1];
+			System.arraycopy(networks, 0, grown, 0, insertion);
+			grown[insertion] = network;
+			System.arraycopy(networks, insertion, grown, insertion + 1, networks.length - insertion);
+			_networks[prefix] = grown;
+		}
+		
+		public boolean contains(int address)
+		{
+			long prefixes = _prefixes;
+			while (prefixes != 0)
+			{
+				final int prefix = Long.numberOfTrailingZeros(prefixes);
+				if (Arrays.binarySearch(_networks[prefix], address & mask(prefix)) >= 0)
+				{
+					return true;
+				}
+				prefixes &= prefixes - 1;
+			}
+			return false;
+		}
+		
+		public boolean isEmpty()
+		{
+			return _prefixes == 0;
+		}
+		
+		private static int mask(int prefix)
+		{
+			return prefix == 0 ? 0 : -1 << (32 - prefix);
+		}
+	}
+}
@@ -24,11 +24,13 @@ import java.nio.ByteBuffer;
 import java.security.interfaces.RSAPrivateKey;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.logging.Logger;
 
 import com.l2jserver.login.Config;
 import com.l2jserver.login.LoginController;
 import com.l2jserver.login.SessionKey;
+import com.l2jserver.login.WaitingRoom;
 import com.l2jserver.login.network.serverpackets.L2LoginServerPacket;
 import com.l2jserver.login.network.serverpackets.LoginFail;
 import com.l2jserver.login.network.serverpackets.LoginFail.LoginFailReason;
@@ -73,6 +75,8 @@ public final class L2LoginClient extends MMOClient<MMOConnection<L2LoginClient>>
 	private Map<Integer, long[]> _charsToDelete;
 	
 	private final long _connectionStartTime;
+	private Executor _packetExecutor;
+	private Runnable _disconnectionTask;
 	
 	/**
 	 * @param con
@@ -86,7 +90,7 @@ public final class L2LoginClient extends MMOClient<MMOConnection<L2LoginClient>>
 		_sessionId = Rnd.nextInt();
 		_connectionStartTime = System.currentTimeMillis();
 		_loginCrypt = new LoginCrypt();
-		_loginCrypt.setKey(_blowfishKey);
+		_loginCrypt.setCipher(LoginController.getInstance().getBlowfishCipher(_blowfishKey));
 	}
 	
 	@Override
@@ -137,6 +141,10 @@ public final class L2LoginClient extends MMOClient<MMOConnection<L2LoginClient>>
 	public void setState(LoginClientState state)
 	{
 		_state = state;
+		if (state == LoginClientState.AUTHED_LOGIN)
+		{
+			WaitingRoom.getInstance().leave(this);
+		}
 	}
 	
 	public byte[] getBlowfishKey()
@@ -214,6 +222,27 @@ public final class L2LoginClient extends MMOClient<MMOConnection<L2LoginClient>>
 		return _connectionStartTime;
 	}
 	
+	/**
+	 * @return the executor keeping the packets of this client in order, only set on the per connection execution mode
+	 */
+	public Executor getPacketExecutor()
+	{
+		return _packetExecutor;
+	}
+	
+	public void setPacketExecutor(Executor packetExecutor)
+	{
+		_packetExecutor = packetExecutor;
+	}
+	
+	/**
+	 * @param disconnectionTask run once when the connection is closed, gives back the connection slot of the client address
+	 */
+	public void setDisconnectionTask(Runnable disconnectionTask)
+	{
+		_disconnectionTask = disconnectionTask;
+	}
+	
 	public void sendPacket(L2LoginServerPacket lsp)
 	{
 		getConnection().sendPacket(lsp);
@@ -270,6 +299,15 @@ public final class L2LoginClient extends MMOClient<MMOConnection<L2LoginClient>>
 			_log.info("DISCONNECTED: " + toString());
 		}
 		
+		WaitingRoom.getInstance().leave(this);
+		
+		final Runnable disconnectionTask = _disconnectionTask;
+		_disconnectionTask = null;
+		if (disconnectionTask != null)
+		{
+			disconnectionTask.run();
+		}
+		
 		if (!hasJoinedGS() || ((getConnectionStartTime() + LoginController.LOGIN_TIMEOUT) < System.currentTimeMillis()))
 		{
 			LoginController.getInstance().removeAuthedLoginClient(getAccount());
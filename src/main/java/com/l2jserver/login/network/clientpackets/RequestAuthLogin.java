@@ -20,6 +20,7 @@ package com.l2jserver.login.network.clientpackets;
 
 import java.net.InetAddress;
 import java.security.GeneralSecurityException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,6 +38,8 @@ import com.l2jserver.login.network.serverpackets.AccountKicked.AccountKickedReas
 import com.l2jserver.login.network.serverpackets.LoginFail.LoginFailReason;
 import com.l2jserver.login.network.serverpackets.LoginOk;
 import com.l2jserver.login.network.serverpackets.ServerList;
+import com.l2jserver.util.Util;
+import com.l2jserver.util.db.L2DatabaseFactory;
 
 /**
  * <pre>
@@ -142,12 +145,57 @@ public class RequestAuthLogin extends L2LoginClientPacket
 			return;
 		}
 		
-		InetAddress clientAddr = getClient().getConnection().getInetAddress();
+		final InetAddress clientAddr = client.getConnection().getInetAddress();
+		if (LoginController.getInstance().isAccountLocked(clientAddr, _user))
+		{
+			client.close(LoginFailReason.REASON_ACCESS_FAILED_TRY_AGAIN_LATER);
+			return;
+		}
 		
+		final String passwordHash;
+		try
+		{
+			passwordHash = LoginController.hashPassword(_password);
+		}
+		catch (GeneralSecurityException e)
+		{
+			_log.log(Level.WARNING, "", e);
+			return;
+		}
+		
+		// the crypto part is done, the rest continues once the account store answers
+		LoginController.getInstance().retriveAccountInfoByHash(clientAddr, _user, passwordHash).whenComplete((info, e) ->
+		{
+			if (e != null)
+			{
+				if (!(Util.unwrapCompletion(e) instanceof RejectedExecutionException))
+				{
+					_log.log(Level.WARNING, "", e);
+				}
+				client.close(LoginFailReason.REASON_SERVER_OVERLOADED);
+				return;
+			}
+			authenticate(client, clientAddr, info);
+		});
+	}
+	
+	/**
+	 * Checks in the account, once it was looked up.
+	 * @param client the client
+	 * @param clientAddr the client address
+	 * @param info the account info, null if the account doesn't exist or the password is wrong
+	 */
+	private void authenticate(L2LoginClient client, InetAddress clientAddr, AccountInfo info)
+	{
 		final LoginController lc = LoginController.getInstance();
-		AccountInfo info = lc.retriveAccountInfo(clientAddr, _user, _password);
 		if (info == null)
 		{
+			if (!L2DatabaseFactory.isAvailable())
+			{
+				// don't let the client think the password is wrong
+				client.close(LoginFailReason.REASON_SYSTEM_ERROR);
+				return;
+			}
 			// user or pass wrong
 			client.close(LoginFailReason.REASON_USER_OR_PASS_WRONG);
 			return;
@@ -163,11 +211,11 @@ public class RequestAuthLogin extends L2LoginClientPacket
 				lc.getCharactersOnAccount(info.getLogin());
 				if (Config.SHOW_LICENCE)
 				{
-					client.sendPacket(new LoginOk(getClient().getSessionKey()));
+					client.sendPacket(new LoginOk(client.getSessionKey()));
 				}
 				else
 				{
-					getClient().sendPacket(new ServerList(getClient()));
+					client.sendPacket(new ServerList(client));
 				}
 				break;
 			case INVALID_PASSWORD:
@@ -18,10 +18,12 @@
  */
 package com.l2jserver.login.network.gameserverpackets;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.l2jserver.login.GameServerThread;
 import com.l2jserver.login.LoginController;
+import com.l2jserver.util.Util;
 import com.l2jserver.util.network.packets.BaseRecievePacket;
 
 /**
@@ -41,7 +43,17 @@ public class ChangeAccessLevel extends BaseRecievePacket
 		int level = readD();
 		String account = readS();
 		
-		LoginController.getInstance().setAccountAccessLevel(account, level);
-		_log.info("Changed " + account + " access level to " + level);
+		LoginController.getInstance().setAccountAccessLevel(account, level).whenComplete((v, e) ->
+		{
+			if (e != null)
+			{
+				final Throwable cause = Util.unwrapCompletion(e);
+				_log.log(Level.WARNING, "Could not set accessLevel: " + cause.getMessage(), cause);
+			}
+			else
+			{
+				_log.info("Changed " + account + " access level to " + level);
+			}
+		});
 	}
 }
@@ -18,11 +18,7 @@
  */
 package com.l2jserver.login.network.gameserverpackets;
 
-import java.security.MessageDigest;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.util.Base64;
+import java.security.NoSuchAlgorithmException;
 import java.util.Collection;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -30,7 +26,8 @@ import java.util.logging.Logger;
 import com.l2jserver.login.GameServerTable;
 import com.l2jserver.login.GameServerTable.GameServerInfo;
 import com.l2jserver.login.GameServerThread;
-import com.l2jserver.util.db.L2DatabaseFactory;
+import com.l2jserver.login.LoginController;
+import com.l2jserver.util.Util;
 import com.l2jserver.util.network.packets.BaseRecievePacket;
 
 /**
@@ -39,7 +36,6 @@ import com.l2jserver.util.network.packets.BaseRecievePacket;
 public class ChangePassword extends BaseRecievePacket
 {
 	protected static Logger _log = Logger.getLogger(ChangePassword.class.getName());
-	private static GameServerThread gst = null;
 	
 	public ChangePassword(byte[] decrypt)
 	{
@@ -51,6 +47,7 @@ public class ChangePassword extends BaseRecievePacket
 		String newpass = readS();
 		
 		// get the GameServerThread
+		GameServerThread gst = null;
 		Collection<GameServerInfo> serverList = GameServerTable.getInstance().getRegisteredGameServers().values();
 		for (GameServerInfo gsi : serverList)
 		{
@@ -71,63 +68,37 @@ public class ChangePassword extends BaseRecievePacket
 		}
 		else
 		{
+			final String curpassEnc;
+			final String newpassEnc;
 			try
 			{
-				MessageDigest md = MessageDigest.getInstance("SHA");
-				
-				byte[] raw = curpass.getBytes("UTF-8");
-				raw = md.digest(raw);
-				String curpassEnc = Base64.getEncoder().encodeToString(raw);
-				String pass = null;
-				int passUpdated = 0;
-				
-				// SQL connection
-				try (Connection con = L2DatabaseFactory.getInstance().getConnection();
-					PreparedStatement ps = con.prepareStatement("SELECT password FROM accounts WHERE login=?"))
+				curpassEnc = LoginController.hashPassword(curpass);
+				newpassEnc = LoginController.hashPassword(newpass);
+			}
+			catch (NoSuchAlgorithmException e)
+			{
+				_log.warning("Error while changing password for account " + accountName + " requested by player " + characterName + "! " + e);
+				return;
+			}
+			
+			final GameServerThread server = gst;
+			LoginController.getInstance().changeAccountPassword(accountName, curpassEnc, newpassEnc).whenComplete((changed, e) ->
+			{
+				if (e != null)
 				{
-					ps.setString(1, accountName);
-					try (ResultSet rs = ps.executeQuery())
-					{
-						if (rs.next())
-						{
-							pass = rs.getString("password");
-						}
-					}
+					_log.warning("Error while changing password for account " + accountName + " requested by player " + characterName + "! " + Util.unwrapCompletion(e));
+					server.ChangePasswordResponse((byte) 0, characterName, "The password change was unsuccessful!");
 				}
-				
-				if (curpassEnc.equals(pass))
+				else if (changed)
 				{
-					byte[] password = newpass.getBytes("UTF-8");
-					password = md.digest(password);
-					
-					// SQL connection
-					try (Connection con = L2DatabaseFactory.getInstance().getConnection();
-						PreparedStatement ps = con.prepareStatement("UPDATE accounts SET password=? WHERE login=?"))
-					{
-						ps.setString(1, Base64.getEncoder().encodeToString(password));
-						ps.setString(2, accountName);
-						passUpdated = ps.executeUpdate();
-					}
-					
-					_log.log(Level.INFO, "The password for account " + accountName + " has been changed from " + curpassEnc + " to " + Base64.getEncoder().encodeToString(password));
-					if (passUpdated > 0)
-					{
-						gst.ChangePasswordResponse((byte) 1, characterName, "You have successfully changed your password!");
-					}
-					else
-					{
-						gst.ChangePasswordResponse((byte) 0, characterName, "The password change was unsuccessful!");
-					}
+					_log.log(Level.INFO, "The password for account " + accountName + " has been changed from " + curpassEnc + " to " + newpassEnc);
+					server.ChangePasswordResponse((byte) 1, characterName, "You have successfully changed your password!");
 				}
 				else
 				{
-					gst.ChangePasswordResponse((byte) 0, characterName, "The typed current password doesn't match with your current one.");
+					server.ChangePasswordResponse((byte) 0, characterName, "The typed current password doesn't match with your current one.");
 				}
-			}
-			catch (Exception e)
-			{
-				_log.warning("Error while changing password for account " + accountName + " requested by player " + characterName + "! " + e);
-			}
+			});
 		}
 	}
 }
\ No newline at end of file
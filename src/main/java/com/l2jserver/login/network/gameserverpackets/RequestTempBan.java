@@ -19,13 +19,10 @@
 package com.l2jserver.login.network.gameserverpackets;
 
 import java.net.UnknownHostException;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
 import java.util.logging.Logger;
 
 import com.l2jserver.login.LoginController;
-import com.l2jserver.util.db.L2DatabaseFactory;
+import com.l2jserver.util.Util;
 import com.l2jserver.util.network.packets.BaseRecievePacket;
 
 /**
@@ -60,19 +57,13 @@ public class RequestTempBan extends BaseRecievePacket
 	
 	private void banUser()
 	{
-		try (Connection con = L2DatabaseFactory.getInstance().getConnection();
-			PreparedStatement ps = con.prepareStatement("INSERT INTO account_data VALUES (?, ?, ?) ON DUPLICATE KEY UPDATE value=?"))
+		LoginController.getInstance().setAccountTempBan(_accountName, _banTime).whenComplete((v, e) ->
 		{
-			ps.setString(1, _accountName);
-			ps.setString(2, "ban_temp");
-			ps.setString(3, Long.toString(_banTime));
-			ps.setString(4, Long.toString(_banTime));
-			ps.execute();
-		}
-		catch (SQLException e)
-		{
-			_log.warning(getClass().getSimpleName() + ": " + e.getMessage());
-		}
+			if (e != null)
+			{
+				_log.warning(getClass().getSimpleName() + ": " + Util.unwrapCompletion(e).getMessage());
+			}
+		});
 		
 		try
 		{
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.login.store;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.l2jserver.login.model.data.AccountInfo;
+
+/**
+ * Storage of the login server accounts.<br>
+ * Every operation is asynchronous, the returned future completes once the account is read or the change is stored, exceptionally if the storage failed.<br>
+ * Implementations that have to block do it on their own threads, never on the calling one, so packet handlers can compose on the futures instead of waiting for them.
+ */
+public interface AccountStore
+{
+	/**
+	 * Looks up an account.<br>
+	 * Temporarily banned accounts have an access level of -1 until the ban is over.
+	 * @param login the account name
+	 * @return the account info, null if the account doesn't exist
+	 */
+	CompletableFuture<AccountInfo> findAccount(String login);
+	
+	/**
+	 * @param login the account name
+	 * @param passwordHash the password hash, as returned by {@link com.l2jserver.login.LoginController#hashPassword(String)}
+	 * @param lastIP the address of the client that created the account
+	 * @return the completion of the insert
+	 */
+	CompletableFuture<Void> createAccount(String login, String passwordHash, String lastIP);
+	
+	/**
+	 * Records a successful checkin.
+	 * @param login the account name
+	 * @param lastActive the login time
+	 * @param lastIP the client address
+	 * @return the completion of the update
+	 */
+	CompletableFuture<Void> updateLastActive(String login, long lastActive, String lastIP);
+	
+	/**
+	 * @param login the account name
+	 * @param serverId the id of the last game server the account went to
+	 * @return the completion of the update
+	 */
+	CompletableFuture<Void> updateLastServer(String login, int serverId);
+	
+	/**
+	 * @param login the account name
+	 * @param pcIp the client address as seen by the client
+	 * @param hop1 first hop
+	 * @param hop2 second hop
+	 * @param hop3 third hop
+	 * @param hop4 fourth hop
+	 * @return the completion of the update
+	 */
+	CompletableFuture<Void> updateLastTracert(String login, String pcIp, String hop1, String hop2, String hop3, String hop4);
+	
+	/**
+	 * @param login the account name
+	 * @param accessLevel the new access level, negative values ban the account
+	 * @return the completion of the update
+	 */
+	CompletableFuture<Void> setAccessLevel(String login, int accessLevel);
+	
+	/**
+	 * @param login the account name
+	 * @param banEnd time in milliseconds when the ban is over
+	 * @return the completion of the update
+	 */
+	CompletableFuture<Void> setTempBan(String login, long banEnd);
+	
+	/**
+	 * Changes the password, only if the current one matches.
+	 * @param login the account name
+	 * @param currentHash hash of the current password
+	 * @param newHash hash of the new password
+	 * @return true if the password was changed, false if the account doesn't exist or the current password doesn't match
+	 */
+	CompletableFuture<Boolean> changePassword(String login, String currentHash, String newHash);
+	
+	public static enum StoreType
+	{
+		/** Accounts in the database, through the JDBC connection pool. */
+		JDBC,
+		/** Accounts in memory only, lost on restart, for benchmarks and tests. */
+		MEMORY
+	}
+}
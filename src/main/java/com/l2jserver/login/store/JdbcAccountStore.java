@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.login.store;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.l2jserver.login.AccountLookupBatcher;
+import com.l2jserver.login.AccountUpdater;
+import com.l2jserver.login.AuthPipeline;
+import com.l2jserver.login.Config;
+import com.l2jserver.login.model.data.AccountInfo;
+import com.l2jserver.util.db.L2DatabaseFactory;
+
+/**
+ * Accounts in the {@code accounts} and {@code account_data} tables.<br>
+ * Lookups are grouped by the {@link AccountLookupBatcher} and the bookkeeping columns are written behind by the {@link AccountUpdater}.<br>
+ * Account creation runs on the account stage of the {@link AuthPipeline} like the rest of the login, or on the calling thread when the pipeline is not used, since with virtual threads blocking is cheap.<br>
+ * The writes requested by game servers (access level, temporary ban, password) run on the calling game server thread: they must not be refused when the account stage is saturated by a login storm.
+ */
+public final class JdbcAccountStore implements AccountStore
+{
+	private static final String ACCOUNT_INSERT = "INSERT INTO accounts (login, password, lastactive, accessLevel, lastIP) values (?, ?, ?, ?, ?)";
+	private static final String ACCOUNT_ACCESS_LEVEL_UPDATE = "UPDATE accounts SET accessLevel = ? WHERE login = ?";
+	private static final String ACCOUNT_PASSWORD_UPDATE = "UPDATE accounts SET password = ? WHERE login = ? AND password = ?";
+	private static final String ACCOUNT_TEMP_BAN_INSERT = "INSERT INTO account_data VALUES (?, 'ban_temp', ?) ON DUPLICATE KEY UPDATE value = ?";
+	
+	@Override
+	public CompletableFuture<AccountInfo> findAccount(String login)
+	{
+		return AccountLookupBatcher.getInstance().lookup(login);
+	}
+	
+	@Override
+	public CompletableFuture<Void> createAccount(String login, String passwordHash, String lastIP)
+	{
+		return submit(ACCOUNT_INSERT, (ps) ->
+		{
+			ps.setString(1, login);
+			ps.setString(2, passwordHash);
+			ps.setLong(3, System.currentTimeMillis());
+			ps.setInt(4, 0);
+			ps.setString(5, lastIP);
+		}).thenApply((updated) -> null);
+	}
+	
+	@Override
+	public CompletableFuture<Void> updateLastActive(String login, long lastActive, String lastIP)
+	{
+		return update(() -> AccountUpdater.getInstance().setLastActive(login, lastActive, lastIP));
+	}
+	
+	@Override
+	public CompletableFuture<Void> updateLastServer(String login, int serverId)
+	{
+		return update(() -> AccountUpdater.getInstance().setLastServer(login, serverId));
+	}
+	
+	@Override
+	public CompletableFuture<Void> updateLastTracert(String login, String pcIp, String hop1, String hop2, String hop3, String hop4)
+	{
+		return update(() -> AccountUpdater.getInstance().setLastTracert(login, pcIp, hop1, hop2, hop3, hop4));
+	}
+	
+	@Override
+	public CompletableFuture<Void> setAccessLevel(String login, int accessLevel)
+	{
+		return execute(ACCOUNT_ACCESS_LEVEL_UPDATE, (ps) ->
+		{
+			ps.setInt(1, accessLevel);
+			ps.setString(2, login);
+		}).thenApply((updated) -> null);
+	}
+	
+	@Override
+	public CompletableFuture<Void> setTempBan(String login, long banEnd)
+	{
+		return execute(ACCOUNT_TEMP_BAN_INSERT, (ps) ->
+		{
+			ps.setString(1, login);
+			ps.setString(2, Long.toString(banEnd));
+			ps.setString(3, Long.toString(banEnd));
+		}).thenApply((updated) -> null);
+	}
+	
+	@Override
+	public CompletableFuture<Boolean> changePassword(String login, String currentHash, String newHash)
+	{
+		return execute(ACCOUNT_PASSWORD_UPDATE, (ps) ->
+		{
+			ps.setString(1, newHash);
+			ps.setString(2, login);
+			ps.setString(3, currentHash);
+		}).thenApply((updated) -> updated > 0);
+	}
+	
+	/**
+	 * Runs an update statement on the primary database, on the calling thread.
+	 * @param sql the statement
+	 * @param parameters sets the statement parameters
+	 * @return the number of updated rows
+	 */
+	private static CompletableFuture<Integer> execute(String sql, Parameters parameters)
+	{
+		final CompletableFuture<Integer> result = new CompletableFuture<>();
+		execute(sql, parameters, result);
+		return result;
+	}
+	
+	/**
+	 * Runs an update statement on the primary database, on the account stage.
+	 * @param sql the statement
+	 * @param parameters sets the statement parameters
+	 * @return the number of updated rows
+	 */
+	private static CompletableFuture<Integer> submit(String sql, Parameters parameters)
+	{
+		final CompletableFuture<Integer> result = new CompletableFuture<>();
+		final AuthPipeline pipeline = AuthPipeline.getInstance();
+		if (!pipeline.isEnabled())
+		{
+			execute(sql, parameters, result);
+		}
+		else if (!pipeline.getAccountStage().execute(() -> execute(sql, parameters, result)))
+		{
+			result.completeExceptionally(new RejectedExecutionException("Account stage is saturated."));
+		}
+		return result;
+	}
+	
+	private static void execute(String sql, Parameters parameters, CompletableFuture<Integer> result)
+	{
+		try (Connection con = L2DatabaseFactory.getInstance().getConnection();
+			PreparedStatement ps = con.prepareStatement(sql))
+		{
+			parameters.set(ps);
+			result.complete(ps.executeUpdate());
+		}
+		catch (Exception e)
+		{
+			result.completeExceptionally(e);
+		}
+	}
+	
+	/**
+	 * Queues a bookkeeping update. When write-behind is disabled the {@link AccountUpdater} stores it right away, so it is moved off the calling thread like the other statements.
+	 * @param update the update
+	 * @return the completion of the update
+	 */
+	private static CompletableFuture<Void> update(Runnable update)
+	{
+		if (Config.ACCOUNT_UPDATE_WRITE_BEHIND || !AuthPipeline.getInstance().isEnabled())
+		{
+			update.run();
+			return CompletableFuture.completedFuture(null);
+		}
+		
+		final CompletableFuture<Void> result = new CompletableFuture<>();
+		if (!AuthPipeline.getInstance().getAccountStage().execute(() ->
+		{
+			try
+			{
+				update.run();
+				result.complete(null);
+			}
+			catch (Exception e)
+			{
+				result.completeExceptionally(e);
+			}
+		}))
+		{
+			result.completeExceptionally(new RejectedExecutionException("Account stage is saturated."));
+		}
+		return result;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "Account store: JDBC";
+	}
+	
+	@FunctionalInterface
+	private static interface Parameters
+	{
+		void set(PreparedStatement ps) throws SQLException;
+	}
+}
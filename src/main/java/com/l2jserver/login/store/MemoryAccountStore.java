@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.login.store;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.l2jserver.login.model.data.AccountInfo;
+
+/**
+ * Accounts kept in memory only, every operation completes right away.<br>
+ * Nothing is persisted, accounts are created by the auto create option or with {@link #createAccount(String, String, String)}, so it is meant for benchmarks and tests, where the login path should be measured without the database.
+ */
+public final class MemoryAccountStore implements AccountStore
+{
+	private final Map<String, Account> _accounts = new ConcurrentHashMap<>();
+	
+	@Override
+	public CompletableFuture<AccountInfo> findAccount(String login)
+	{
+		final Account account = _accounts.get(login.toLowerCase());
+		if (account == null)
+		{
+			return CompletableFuture.completedFuture(null);
+		}
+		
+		synchronized (account)
+		{
+			final int accessLevel = account._tempBanEnd > System.currentTimeMillis() ? -1 : account._accessLevel;
+			return CompletableFuture.completedFuture(new AccountInfo(account._login, account._passwordHash, accessLevel, account._lastServer));
+		}
+	}
+	
+	@Override
+	public CompletableFuture<Void> createAccount(String login, String passwordHash, String lastIP)
+	{
+		final Account account = new Account(login.toLowerCase(), passwordHash);
+		account._lastActive = System.currentTimeMillis();
+		account._lastIP = lastIP;
+		if (_accounts.putIfAbsent(account._login, account) != null)
+		{
+			final CompletableFuture<Void> result = new CompletableFuture<>();
+			result.completeExceptionally(new IllegalStateException("Account " + login + " already exists."));
+			return result;
+		}
+		return CompletableFuture.completedFuture(null);
+	}
+	
+	@Override
+	public CompletableFuture<Void> updateLastActive(String login, long lastActive, String lastIP)
+	{
+		final Account account = _accounts.get(login.toLowerCase());
+		if (account != null)
+		{
+			synchronized (account)
+			{
+				account._lastActive = lastActive;
+				account._lastIP = lastIP;
+			}
+		}
+		return CompletableFuture.completedFuture(null);
+	}
+	
+	@Override
+	public CompletableFuture<Void> updateLastServer(String login, int serverId)
+	{
+		final Account account = _accounts.get(login.toLowerCase());
+		if (account != null)
+		{
+			synchronized (account)
+			{
+				account._lastServer = serverId;
+			}
+		}
+		return CompletableFuture.completedFuture(null);
+	}
+	
+	@Override
+	public CompletableFuture<Void> updateLastTracert(String login, String pcIp, String hop1, String hop2, String hop3, String hop4)
+	{
+		// not used by the login server itself
+		return CompletableFuture.completedFuture(null);
+	}
+	
+	@Override
+	public CompletableFuture<Void> setAccessLevel(String login, int accessLevel)
+	{
+		final Account account = _accounts.get(login.toLowerCase());
+		if (account != null)
+		{
+			synchronized (account)
+			{
+				account._accessLevel = accessLevel;
+			}
+		}
+		return CompletableFuture.completedFuture(null);
+	}
+	
+	@Override
+	public CompletableFuture<Void> setTempBan(String login, long banEnd)
+	{
+		final Account account = _accounts.get(login.toLowerCase());
+		if (account != null)
+		{
+			synchronized (account)
+			{
+				account._tempBanEnd = banEnd;
+			}
+		}
+		return CompletableFuture.completedFuture(null);
+	}
+	
+	@Override
+	public CompletableFuture<Boolean> changePassword(String login, String currentHash, String newHash)
+	{
+		final Account account = _accounts.get(login.toLowerCase());
+		if (account == null)
+		{
+			return CompletableFuture.completedFuture(false);
+		}
+		
+		synchronized (account)
+		{
+			if (!account._passwordHash.equals(currentHash))
+			{
+				return CompletableFuture.completedFuture(false);
+			}
+			account._passwordHash = newHash;
+		}
+		return CompletableFuture.completedFuture(true);
+	}
+	
+	/**
+	 * @return the number of accounts
+	 */
+	public int size()
+	{
+		return _accounts.size();
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "Account store: memory, " + size() + " accounts";
+	}
+	
+	private static final class Account
+	{
+		protected final String _login;
+		protected String _passwordHash;
+		protected int _accessLevel;
+		protected int _lastServer = 1;
+		protected long _tempBanEnd;
+		protected long _lastActive;
+		protected String _lastIP;
+		
+		public Account(String login, String passwordHash)
+		{
+			_login = login;
+			_passwordHash = passwordHash;
+		}
+	}
+}
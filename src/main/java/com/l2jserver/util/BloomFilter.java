@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter of strings: a compact set that can answer "certainly not present" or "probably present".<br>
+ * Sized for an expected number of entries and false positive rate, it takes about {@code -ln(rate) / ln(2)^2} bits per entry, 9.6 bits for 1%.<br>
+ * Adding and querying is thread-safe and lock-free.
+ */
+public final class BloomFilter
+{
+	private final AtomicLongArray _bits;
+	private final long _bitCount;
+	private final int _hashCount;
+	
+	/**
+	 * @param expectedEntries the number of entries the filter is sized for
+	 * @param falsePositiveRate the rate of false positives once the filter holds the expected number of entries, between 0 and 1
+	 */
+	public BloomFilter(long expectedEntries, double falsePositiveRate)
+	{
+		final long entries = Math.max(1, expectedEntries);
+		final double ln2 = Math.log(2);
+		final long bits = Math.max(64, (long) Math.ceil((-entries * Math.log(falsePositiveRate)) / (ln2 * ln2)));
+		final long words = (bits + 63) >>> 6;
+		if (words > Integer.MAX_VALUE)
+		{
+			throw new IllegalArgumentException("Bloom filter too large: " + bits + " bits.");
+		}
+		_bits = new AtomicLongArray((int) words);
+		_bitCount = words << 6;
+		_hashCount = Math.max(1, (int) Math.round(((double) _bitCount / entries) * ln2));
+	}
+	
+	public void add(String value)
+	{
+		final long hash = hash(value);
+		final long h1 = hash;
+		final long h2 = mix(hash) | 1;
+		for (int i = 0; i < _hashCount; i++)
+		{
+			final long bit = Long.remainderUnsigned(h1 + (i * h2), _bitCount);
+			final int word = (int) (bit >>> 6);
+			final long mask = 1L << bit;
+			long current;
+			while (((current = _bits.get(word)) & mask) == 0)
+			{
+				if (_bits.compareAndSet(word, current, current | mask))
+				{
+					break;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @param value the value
+	 * @return false if the value was certainly never added, true if it probably was
+	 */
+	public boolean mightContain(String value)
+	{
+		final long hash = hash(value);
+		final long h1 = hash;
+		final long h2 = mix(hash) | 1;
+		for (int i = 0; i < _hashCount; i++)
+		{
+			final long bit = Long.remainderUnsigned(h1 + (i * h2), _bitCount);
+			if ((_bits.get((int) (bit >>> 6)) & (1L << bit)) == 0)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @return the memory taken by the bits, in bytes
+	 */
+	public long getSize()
+	{
+		return _bitCount >>> 3;
+	}
+	
+	public int getHashCount()
+	{
+		return _hashCount;
+	}
+	
+	/**
+	 * 64 bit FNV-1a of the characters, with a final mix so the low bits are usable.
+	 * @param value the value
+	 * @return the hash
+	 */
+	private static long hash(String value)
+	{
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++)
+		{
+			hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+		}
+		return mix(hash);
+	}
+	
+	/**
+	 * MurmurHash3 64 bit finalizer.
+	 * @param value the value
+	 * @return the mixed value
+	 */
+	private static long mix(long value)
+	{
+		long h = value;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Count-min sketch over a sliding time window: estimates how many times each key was added during the last window, in a fixed amount of memory whatever the number of distinct keys.<br>
+ * Estimates are never lower than the real counts. Counters are updated conservatively, only the smallest counters of a key grow, which keeps the overestimation of rare keys low when they share counters with frequent ones.<br>
+ * Two generations of counters are kept, for the current window and the previous one. The previous window counts in proportion of the part of it still inside the sliding window, so counts decay smoothly instead of dropping at once.<br>
+ * Counters are saturating bytes, packed four per int. Adding and estimating is thread-safe and lock-free, but additions of the same key racing each other may count once, and the few additions made while a new window clears its counters may be lost.
+ */
+public final class CountMinSketch
+{
+	/** Highest value of a counter. */
+	public static final int MAX_COUNT = 0xFF;
+	
+	private final int _depth;
+	private final int _width;
+	private final long _window;
+	private final AtomicIntegerArray[] _generations = new AtomicIntegerArray[2];
+	/** Index of the current window since the epoch. */
+	private final AtomicLong _windowIndex;
+	
+	/**
+	 * @param depth the number of counters per key, more counters lower the odds of a large overestimation
+	 * @param width the number of counters per row, rounded up to a power of two, more counters lower the overestimation
+	 * @param window the length of the sliding window, in milliseconds
+	 */
+	public CountMinSketch(int depth, int width, long window)
+	{
+		_depth = depth;
+		_width = Integer.highestOneBit(Math.max(4, width) - 1) << 1;
+		_window = window;
+		_generations[0] = new AtomicIntegerArray((_depth * _width) >> 2);
+		_generations[1] = new AtomicIntegerArray((_depth * _width) >> 2);
+		_windowIndex = new AtomicLong(System.currentTimeMillis() / window);
+	}
+	
+	/**
+	 * Counts one more occurrence of the key.
+	 * @param key the key
+	 * @return the estimated count of the key in the sliding window, this occurrence included
+	 */
+	public int add(long key)
+	{
+		final long now = System.currentTimeMillis();
+		final long windowIndex = rotate(now);
+		final AtomicIntegerArray counters = _generations[(int) (windowIndex & 1)];
+		final long h1 = mix(key);
+		final long h2 = mix(h1) | 1;
+		
+		final int target = Math.min(min(counters, h1, h2) + 1, MAX_COUNT);
+		for (int row = 0; row < _depth; row++)
+		{
+			raise(counters, index(row, h1, h2), target);
+		}
+		return target + previous(windowIndex, now, h1, h2);
+	}
+	
+	/**
+	 * @param key the key
+	 * @return the estimated count of the key in the sliding window
+	 */
+	public int estimate(long key)
+	{
+		final long now = System.currentTimeMillis();
+		final long windowIndex = rotate(now);
+		final long h1 = mix(key);
+		final long h2 = mix(h1) | 1;
+		return min(_generations[(int) (windowIndex & 1)], h1, h2) + previous(windowIndex, now, h1, h2);
+	}
+	
+	/**
+	 * @return the part of the count of the previous window still inside the sliding window
+	 */
+	private int previous(long windowIndex, long now, long h1, long h2)
+	{
+		final double elapsed = (double) (now - (windowIndex * _window)) / _window;
+		if (elapsed >= 1)
+		{
+			return 0;
+		}
+		return (int) (min(_generations[(int) ((windowIndex - 1) & 1)], h1, h2) * (1 - Math.max(0, elapsed)));
+	}
+	
+	/**
+	 * Moves to the window of the given time if needed, clearing the counters of the windows that left the sliding window.
+	 * @param now the current time
+	 * @return the index of the current window
+	 */
+	private long rotate(long now)
+	{
+		final long windowIndex = now / _window;
+		long current = _windowIndex.get();
+		while (windowIndex > current)
+		{
+			if (_windowIndex.compareAndSet(current, windowIndex))
+			{
+				// the generation of the new window still holds the one before the previous window
+				clear(_generations[(int) (windowIndex & 1)]);
+				if ((windowIndex - current) > 1)
+				{
+					// the previous window had no activity
+					clear(_generations[(int) ((windowIndex - 1) & 1)]);
+				}
+				return windowIndex;
+			}
+			current = _windowIndex.get();
+		}
+		// a thread that read the clock a bit earlier uses the newer window
+		return current;
+	}
+	
+	private int min(AtomicIntegerArray counters, long h1, long h2)
+	{
+		int min = MAX_COUNT;
+		for (int row = 0; row < _depth; row++)
+		{
+			min = Math.min(min, get(counters, index(row, h1, h2)));
+		}
+		return min;
+	}
+	
+	private int index(int row, long h1, long h2)
+	{
+		return (row * _width) + (int) ((h1 + (row * h2)) & (_width - 1));
+	}
+	
+	private static int get(AtomicIntegerArray counters, int index)
+	{
+		return (counters.get(index >> 2) >>> ((index & 3) << 3)) & MAX_COUNT;
+	}
+	
+	private static void raise(AtomicIntegerArray counters, int index, int value)
+	{
+		final int shift = (index & 3) << 3;
+		while (true)
+		{
+			final int packed = counters.get(index >> 2);
+			if (((packed >>> shift) & MAX_COUNT) >= value)
+			{
+				return;
+			}
+			if (counters.compareAndSet(index >> 2, packed, (packed & ~(MAX_COUNT << shift)) | (value << shift)))
+			{
+				return;
+			}
+		}
+	}
+	
+	private static void clear(AtomicIntegerArray counters)
+	{
+		for (int i = 0; i < counters.length(); i++)
+		{
+			counters.set(i, 0);
+		}
+	}
+	
+	/**
+	 * @return the memory taken by the counters, in bytes
+	 */
+	public long getSize()
+	{
+		return 2L * _depth * _width;
+	}
+	
+	/**
+	 * 64 bit FNV-1a of the characters, for string keys.
+	 * @param value the value
+	 * @return the hash
+	 */
+	public static long hash(String value)
+	{
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++)
+		{
+			hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+		}
+		return hash;
+	}
+	
+	/**
+	 * MurmurHash3 64 bit finalizer.
+	 * @param value the value
+	 * @return the mixed value
+	 */
+	private static long mix(long value)
+	{
+		long h = value;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
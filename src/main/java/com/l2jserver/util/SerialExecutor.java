@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs tasks one at a time, in submission order, on top of another executor.<br>
+ * At most one task of this executor is running on the backing executor at any time, so it can be used to keep per connection ordering on a shared executor.
+ */
+public final class SerialExecutor implements Executor
+{
+	private static final Logger _log = Logger.getLogger(SerialExecutor.class.getName());
+	
+	private final Executor _executor;
+	private final Queue<Runnable> _tasks = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean _running = new AtomicBoolean();
+	
+	/**
+	 * @param executor the executor the tasks will run on
+	 */
+	public SerialExecutor(Executor executor)
+	{
+		_executor = executor;
+	}
+	
+	@Override
+	public void execute(Runnable task)
+	{
+		_tasks.offer(task);
+		schedule();
+	}
+	
+	private void schedule()
+	{
+		if (!_tasks.isEmpty() && _running.compareAndSet(false, true))
+		{
+			_executor.execute(this::drain);
+		}
+	}
+	
+	private void drain()
+	{
+		try
+		{
+			Runnable task;
+			while ((task = _tasks.poll()) != null)
+			{
+				try
+				{
+					task.run();
+				}
+				catch (Exception e)
+				{
+					_log.log(Level.WARNING, "Exception while running a serial task: " + e.getMessage(), e);
+				}
+			}
+		}
+		finally
+		{
+			_running.set(false);
+			// a task might have been queued after the last poll but before the flag was cleared
+			schedule();
+		}
+	}
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed size thread pool with a bounded queue, used as one stage of a processing pipeline.<br>
+ * Besides running the tasks it keeps track of how long they waited in the queue and how long they took to run.
+ */
+public final class StageExecutor
+{
+	/** Weight of the newest sample in the moving averages, 1/8. */
+	private static final int EWMA_SHIFT = 3;
+	
+	private final String _name;
+	private final ThreadPoolExecutor _pool;
+	
+	private final LongAdder _completedTasks = new LongAdder();
+	private final LongAdder _rejectedTasks = new LongAdder();
+	private final LongAdder _totalWaitTime = new LongAdder();
+	private final LongAdder _totalServiceTime = new LongAdder();
+	// Moving averages in nanoseconds, updated without synchronization, a lost sample is irrelevant here.
+	private volatile long _recentWaitTime;
+	private volatile long _recentServiceTime;
+	
+	/**
+	 * @param name the name of the stage, also used for its threads
+	 * @param threads the number of threads
+	 * @param queueSize the maximum number of tasks waiting to run
+	 */
+	public StageExecutor(String name, int threads, int queueSize)
+	{
+		_name = name;
+		_pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize), new StageThreadFactory(name));
+		_pool.allowCoreThreadTimeOut(true);
+	}
+	
+	/**
+	 * Queues the task for execution.
+	 * @param task the task to run
+	 * @return true if the task was queued, false if the stage is saturated or shut down
+	 */
+	public boolean execute(Runnable task)
+	{
+		try
+		{
+			_pool.execute(new StageTask(task));
+			return true;
+		}
+		catch (RejectedExecutionException e)
+		{
+			_rejectedTasks.increment();
+			return false;
+		}
+	}
+	
+	public void shutdown()
+	{
+		_pool.shutdown();
+	}
+	
+	public String getName()
+	{
+		return _name;
+	}
+	
+	public int getThreadCount()
+	{
+		return _pool.getMaximumPoolSize();
+	}
+	
+	public int getActiveCount()
+	{
+		return _pool.getActiveCount();
+	}
+	
+	public int getQueueSize()
+	{
+		return _pool.getQueue().size();
+	}
+	
+	public int getQueueCapacity()
+	{
+		return _pool.getQueue().size() + _pool.getQueue().remainingCapacity();
+	}
+	
+	public long getCompletedTaskCount()
+	{
+		return _completedTasks.sum();
+	}
+	
+	public long getRejectedTaskCount()
+	{
+		return _rejectedTasks.sum();
+	}
+	
+	/**
+	 * @return the average time tasks waited in the queue since startup, in milliseconds
+	 */
+	public double getAverageWaitTime()
+	{
+		final long completed = _completedTasks.sum();
+		return completed == 0 ? 0 : (_totalWaitTime.sum() / 1000000.0) / completed;
+	}
+	
+	/**
+	 * @return the average time tasks took to run since startup, in milliseconds
+	 */
+	public double getAverageServiceTime()
+	{
+		final long completed = _completedTasks.sum();
+		return completed == 0 ? 0 : (_totalServiceTime.sum() / 1000000.0) / completed;
+	}
+	
+	/**
+	 * @return the moving average of the time the latest tasks waited in the queue, in milliseconds
+	 */
+	public double getRecentWaitTime()
+	{
+		return _recentWaitTime / 1000000.0;
+	}
+	
+	/**
+	 * @return the moving average of the time the latest tasks took to run, in milliseconds
+	 */
+	public double getRecentServiceTime()
+	{
+		return _recentServiceTime / 1000000.0;
+	}
+	
+	/**
+	 * Estimates how long a task queued now would wait before running.<br>
+	 * The moving average alone lags behind when the stage stalls, since it is only updated when tasks complete, so the current backlog is also taken into account.<br>
+	 * With an empty queue there is nothing to wait for, which also lets the estimate recover after tasks stop being queued.
+	 * @return the estimated queue wait time, in milliseconds
+	 */
+	public double getEstimatedWaitTime()
+	{
+		final int queueSize = getQueueSize();
+		if (queueSize == 0)
+		{
+			return 0;
+		}
+		final double backlog = (queueSize * getRecentServiceTime()) / getThreadCount();
+		return Math.max(getRecentWaitTime(), backlog);
+	}
+	
+	/**
+	 * @return the ratio of the queue that is in use, between 0 and 1
+	 */
+	public double getQueueLoad()
+	{
+		return (double) getQueueSize() / getQueueCapacity();
+	}
+	
+	@Override
+	public String toString()
+	{
+		return String.format("%s: threads %d/%d, queue %d/%d, completed %d, rejected %d, wait %.2f ms (recent %.2f ms), service %.2f ms (recent %.2f ms)", _name, getActiveCount(), getThreadCount(), getQueueSize(), getQueueCapacity(), getCompletedTaskCount(), getRejectedTaskCount(), getAverageWaitTime(), getRecentWaitTime(), getAverageServiceTime(), getRecentServiceTime());
+	}
+	
+	private final class StageTask implements Runnable
+	{
+		private final Runnable _task;
+		private final long _queuedTime;
+		
+		public StageTask(Runnable task)
+		{
+			_task = task;
+			_queuedTime = System.nanoTime();
+		}
+		
+		@Override
+		public void run()
+		{
+			final long start = System.nanoTime();
+			try
+			{
+				_task.run();
+			}
+			finally
+			{
+				final long end = System.nanoTime();
+				final long wait = start - _queuedTime;
+				final long service = end - start;
+				_totalWaitTime.add(wait);
+				_totalServiceTime.add(service);
+				_completedTasks.increment();
+				_recentWaitTime += (wait - _recentWaitTime) >> EWMA_SHIFT;
+				_recentServiceTime += (service - _recentServiceTime) >> EWMA_SHIFT;
+			}
+		}
+	}
+	
+	private static final class StageThreadFactory implements ThreadFactory
+	{
+		private final String _prefix;
+		private final AtomicInteger _threadNumber = new AtomicInteger(1);
+		
+		public StageThreadFactory(String name)
+		{
+			_prefix = name + "-";
+		}
+		
+		@Override
+		public Thread newThread(Runnable r)
+		{
+			final Thread t = new Thread(r, _prefix + _threadNumber.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -31,6 +31,7 @@ import java.time.temporal.TemporalAdjusters;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Logger;
 
 /**
@@ -223,4 +224,19 @@ public final class Util
 			.orElse(dateNowWithDifferentTime.with(TemporalAdjusters.next(daysOfWeek.get(0))));
 		// @formatter:on
 	}
+	
+	/**
+	 * Dependent stages of a {@link java.util.concurrent.CompletableFuture} see the failure of a previous stage wrapped in a {@link CompletionException}.
+	 * @param e the exception a stage completed with
+	 * @return the original exception
+	 */
+	public static Throwable unwrapCompletion(Throwable e)
+	{
+		Throwable cause = e;
+		while ((cause instanceof CompletionException) && (cause.getCause() != null))
+		{
+			cause = cause.getCause();
+		}
+		return cause;
+	}
 }
@@ -18,6 +18,8 @@
 package com.l2jserver.util.crypt;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 public final class BlowfishEngine
 {
@@ -1426,6 +1428,198 @@ public final class BlowfishEngine
 		bits32ToBytes(xl, dst, dstIndex + 4);
 	}
 	
+	/**
+	 * Method to encrypt a range of blocks in ECB mode.<br>
+	 * The results go directly to the source array.<br>
+	 * <br>
+	 * Compared to calling {@link #encryptBlock(byte[], int)} for every block, the P-array and the S-boxes are kept in locals for the whole range.<br>
+	 * <br>
+	 * This method does not perform any error checking, {@code size} must be a multiple of {@link #getBlockSize()}.
+	 * @param raw array with the data
+	 * @param offset index of the first block
+	 * @param size number of bytes to encrypt
+	 */
+	public void encrypt(byte[] raw, final int offset, final int size)
+	{
+		final int[] s0 = S0, s1 = S1, s2 = S2, s3 = S3;
+		final int p0 = P[0], p1 = P[1], p2 = P[2], p3 = P[3], p4 = P[4], p5 = P[5];
+		final int p6 = P[6], p7 = P[7], p8 = P[8], p9 = P[9], p10 = P[10], p11 = P[11];
+		final int p12 = P[12], p13 = P[13], p14 = P[14], p15 = P[15], p16 = P[16], p17 = P[17];
+		for (int i = offset, end = offset + size; i < end; i += BLOCK_SIZE)
+		{
+			int xl = bytesTo32bits(raw, i);
+			int xr = bytesTo32bits(raw, i + 4);
+			
+			xl ^= p0;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p1;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p2;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p3;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p4;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p5;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p6;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p7;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p8;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p9;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p10;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p11;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p12;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p13;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p14;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p15;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p16;
+			xr ^= p17;
+			
+			bits32ToBytes(xr, raw, i);
+			bits32ToBytes(xl, raw, i + 4);
+		}
+	}
+	
+	/**
+	 * Method to encrypt the remaining blocks of the buffer in ECB mode.<br>
+	 * The blocks between the position and the limit are encrypted in place, trailing bytes that don't fill a whole block are left untouched.<br>
+	 * Heap and direct buffers are both supported, the buffer position, limit and byte order are not modified.
+	 * @param buf the buffer with the data
+	 */
+	public void encrypt(ByteBuffer buf)
+	{
+		if (buf.hasArray())
+		{
+			encrypt(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining() & ~(BLOCK_SIZE - 1));
+			return;
+		}
+		
+		final int[] s0 = S0, s1 = S1, s2 = S2, s3 = S3;
+		final int p0 = P[0], p1 = P[1], p2 = P[2], p3 = P[3], p4 = P[4], p5 = P[5];
+		final int p6 = P[6], p7 = P[7], p8 = P[8], p9 = P[9], p10 = P[10], p11 = P[11];
+		final int p12 = P[12], p13 = P[13], p14 = P[14], p15 = P[15], p16 = P[16], p17 = P[17];
+		final ByteOrder order = buf.order();
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = buf.position(), end = i + (buf.remaining() & ~(BLOCK_SIZE - 1)); i < end; i += BLOCK_SIZE)
+		{
+			int xl = buf.getInt(i);
+			int xr = buf.getInt(i + 4);
+			
+			xl ^= p0;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p1;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p2;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p3;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p4;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p5;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p6;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p7;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p8;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p9;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p10;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p11;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p12;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p13;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p14;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p15;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p16;
+			xr ^= p17;
+			
+			buf.putInt(i, xr);
+			buf.putInt(i + 4, xl);
+		}
+		buf.order(order);
+	}
+	
+	/**
+	 * Method to decrypt a range of blocks in ECB mode.<br>
+	 * The results go directly to the source array.<br>
+	 * <br>
+	 * Compared to calling {@link #decryptBlock(byte[], int)} for every block, the P-array and the S-boxes are kept in locals for the whole range.<br>
+	 * <br>
+	 * This method does not perform any error checking, {@code size} must be a multiple of {@link #getBlockSize()}.
+	 * @param raw array with the data
+	 * @param offset index of the first block
+	 * @param size number of bytes to decrypt
+	 */
+	public void decrypt(byte[] raw, final int offset, final int size)
+	{
+		final int[] s0 = S0, s1 = S1, s2 = S2, s3 = S3;
+		final int p0 = P[0], p1 = P[1], p2 = P[2], p3 = P[3], p4 = P[4], p5 = P[5];
+		final int p6 = P[6], p7 = P[7], p8 = P[8], p9 = P[9], p10 = P[10], p11 = P[11];
+		final int p12 = P[12], p13 = P[13], p14 = P[14], p15 = P[15], p16 = P[16], p17 = P[17];
+		for (int i = offset, end = offset + size; i < end; i += BLOCK_SIZE)
+		{
+			int xl = bytesTo32bits(raw, i);
+			int xr = bytesTo32bits(raw, i + 4);
+			
+			xl ^= p17;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p16;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p15;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p14;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p13;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p12;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p11;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p10;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p9;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p8;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p7;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p6;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p5;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p4;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p3;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p2;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p1;
+			xr ^= p0;
+			
+			bits32ToBytes(xr, raw, i);
+			bits32ToBytes(xl, raw, i + 4);
+		}
+	}
+	
+	/**
+	 * Method to decrypt the remaining blocks of the buffer in ECB mode.<br>
+	 * The blocks between the position and the limit are decrypted in place, trailing bytes that don't fill a whole block are left untouched.<br>
+	 * Heap and direct buffers are both supported, the buffer position, limit and byte order are not modified.
+	 * @param buf the buffer with the data
+	 */
+	public void decrypt(ByteBuffer buf)
+	{
+		if (buf.hasArray())
+		{
+			decrypt(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining() & ~(BLOCK_SIZE - 1));
+			return;
+		}
+		
+		final int[] s0 = S0, s1 = S1, s2 = S2, s3 = S3;
+		final int p0 = P[0], p1 = P[1], p2 = P[2], p3 = P[3], p4 = P[4], p5 = P[5];
+		final int p6 = P[6], p7 = P[7], p8 = P[8], p9 = P[9], p10 = P[10], p11 = P[11];
+		final int p12 = P[12], p13 = P[13], p14 = P[14], p15 = P[15], p16 = P[16], p17 = P[17];
+		final ByteOrder order = buf.order();
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = buf.position(), end = i + (buf.remaining() & ~(BLOCK_SIZE - 1)); i < end; i += BLOCK_SIZE)
+		{
+			int xl = buf.getInt(i);
+			int xr = buf.getInt(i + 4);
+			
+			xl ^= p17;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p16;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p15;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p14;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p13;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p12;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p11;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p10;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p9;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p8;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p7;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p6;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p5;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p4;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p3;
+			xr ^= (((s0[xl >>> 24] + s1[(xl >>> 16) & 0xff]) ^ s2[(xl >>> 8) & 0xff]) + s3[xl & 0xff]) ^ p2;
+			xl ^= (((s0[xr >>> 24] + s1[(xr >>> 16) & 0xff]) ^ s2[(xr >>> 8) & 0xff]) + s3[xr & 0xff]) ^ p1;
+			xr ^= p0;
+			
+			buf.putInt(i, xr);
+			buf.putInt(i + 4, xl);
+		}
+		buf.order(order);
+	}
+	
 	/**
 	 * Method to construct an int from the source array.<br>
 	 * 4 bytes are used from the given index.<br>
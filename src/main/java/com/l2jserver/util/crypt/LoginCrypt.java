@@ -60,6 +60,16 @@ public class LoginCrypt
 		_crypt = new NewCrypt(key);
 	}
 	
+	/**
+	 * Method to initialize the blowfish cipher with an already expanded key schedule.<br>
+	 * The cipher is only read while crypting, so the same instance can be shared between many clients.
+	 * @param crypt the shared blowfish cipher
+	 */
+	public void setCipher(NewCrypt crypt)
+	{
+		_crypt = crypt;
+	}
+	
 	/**
 	 * Method to decrypt an incoming login client packet.
 	 * @param raw array with encrypted data
@@ -79,8 +89,7 @@ public class LoginCrypt
 			throw new IOException("raw array too short for size starting from offset");
 		}
 		
-		_crypt.decrypt(raw, offset, size);
-		return NewCrypt.verifyChecksum(raw, offset, size);
+		return _crypt.decryptAndVerifyChecksum(raw, offset, size);
 	}
 	
 	/**
@@ -120,8 +129,7 @@ public class LoginCrypt
 			{
 				throw new IOException("packet too long");
 			}
-			NewCrypt.appendChecksum(raw, offset, size);
-			_crypt.crypt(raw, offset, size);
+			_crypt.appendChecksumAndCrypt(raw, offset, size);
 		}
 		return size;
 	}
@@ -18,13 +18,17 @@
  */
 package com.l2jserver.util.crypt;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
  * Class to use a blowfish cipher with ECB processing.<br>
  * Static methods are present to append/check the checksum of<br>
  * packets exchanged between the following partners:<br>
  * Login Server <-> Game Client<br>
  * Login Server <-> Game Server<br>
- * Also a static method is provided for the initial xor encryption between Login Server <-> Game Client.
+ * Also a static method is provided for the initial xor encryption between Login Server <-> Game Client.<br>
+ * Once constructed the key schedule is never modified, so an instance can be safely shared between threads.
  */
 public final class NewCrypt
 {
@@ -70,27 +74,16 @@ public final class NewCrypt
 			return false;
 		}
 		
-		long chksum = 0;
-		int count = size - 4;
-		long check = -1;
-		int i;
-		
-		for (i = offset; i < count; i += 4)
+		final ByteBuffer buf = ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN);
+		final int count = size - 4;
+		int i = offset;
+		final int chksum = xorWords(buf, i, count);
+		if (i < count)
 		{
-			check = raw[i] & 0xff;
-			check |= (raw[i + 1] << 8) & 0xff00;
-			check |= (raw[i + 2] << 0x10) & 0xff0000;
-			check |= (raw[i + 3] << 0x18) & 0xff000000;
-			
-			chksum ^= check;
+			i += ((count - i) + 3) & ~3;
 		}
 		
-		check = raw[i] & 0xff;
-		check |= (raw[i + 1] << 8) & 0xff00;
-		check |= (raw[i + 2] << 0x10) & 0xff0000;
-		check |= (raw[i + 3] << 0x18) & 0xff000000;
-		
-		return check == chksum;
+		return buf.getInt(i) == chksum;
 	}
 	
 	/**
@@ -110,30 +103,40 @@ public final class NewCrypt
 	 */
 	public static void appendChecksum(final byte[] raw, final int offset, final int size)
 	{
-		long chksum = 0;
-		int count = size - 4;
-		long ecx;
-		int i;
-		
-		for (i = offset; i < count; i += 4)
+		final ByteBuffer buf = ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN);
+		final int count = size - 4;
+		int i = offset;
+		final int chksum = xorWords(buf, i, count);
+		if (i < count)
 		{
-			ecx = raw[i] & 0xff;
-			ecx |= (raw[i + 1] << 8) & 0xff00;
-			ecx |= (raw[i + 2] << 0x10) & 0xff0000;
-			ecx |= (raw[i + 3] << 0x18) & 0xff000000;
-			
-			chksum ^= ecx;
+			i += ((count - i) + 3) & ~3;
 		}
 		
-		ecx = raw[i] & 0xff;
-		ecx |= (raw[i + 1] << 8) & 0xff00;
-		ecx |= (raw[i + 2] << 0x10) & 0xff0000;
-		ecx |= (raw[i + 3] << 0x18) & 0xff000000;
-		
-		raw[i] = (byte) (chksum & 0xff);
-		raw[i + 1] = (byte) ((chksum >> 0x08) & 0xff);
-		raw[i + 2] = (byte) ((chksum >> 0x10) & 0xff);
-		raw[i + 3] = (byte) ((chksum >> 0x18) & 0xff);
+		buf.putInt(i, chksum);
+	}
+	
+	/**
+	 * XORs together the little-endian words starting at {@code from}, stepping by 4 bytes while the index is lower than {@code to}.<br>
+	 * Words are loaded two at a time as a single long and folded at the end.
+	 * @param buf little-endian view of the data array
+	 * @param from index of the first word
+	 * @param to exclusive upper bound for the index of the last word
+	 * @return the XOR of all the words
+	 */
+	private static int xorWords(final ByteBuffer buf, int from, final int to)
+	{
+		long chksum = 0;
+		int i = from;
+		for (; (i + 4) < to; i += 8)
+		{
+			chksum ^= buf.getLong(i);
+		}
+		int result = (int) chksum ^ (int) (chksum >>> 32);
+		if (i < to)
+		{
+			result ^= buf.getInt(i);
+		}
+		return result;
 	}
 	
 	/**
@@ -157,32 +160,37 @@ public final class NewCrypt
 	 */
 	static void encXORPass(byte[] raw, final int offset, final int size, int key)
 	{
-		int stop = size - 8;
+		final ByteBuffer buf = ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN);
+		final int stop = size - 8;
 		int pos = 4 + offset;
-		int edx;
 		int ecx = key; // Initial xor key
 		
-		while (pos < stop)
+		// two words per step, the key chain still has to be applied in order
+		while ((pos + 4) < stop)
 		{
-			edx = (raw[pos] & 0xFF);
-			edx |= (raw[pos + 1] & 0xFF) << 8;
-			edx |= (raw[pos + 2] & 0xFF) << 16;
-			edx |= (raw[pos + 3] & 0xFF) << 24;
+			final long pair = buf.getLong(pos);
+			int lo = (int) pair;
+			int hi = (int) (pair >>> 32);
 			
-			ecx += edx;
+			ecx += lo;
+			lo ^= ecx;
+			ecx += hi;
+			hi ^= ecx;
 			
+			buf.putLong(pos, (lo & 0xFFFFFFFFL) | ((long) hi << 32));
+			pos += 8;
+		}
+		
+		if (pos < stop)
+		{
+			int edx = buf.getInt(pos);
+			ecx += edx;
 			edx ^= ecx;
-			
-			raw[pos++] = (byte) (edx & 0xFF);
-			raw[pos++] = (byte) ((edx >> 8) & 0xFF);
-			raw[pos++] = (byte) ((edx >> 16) & 0xFF);
-			raw[pos++] = (byte) ((edx >> 24) & 0xFF);
+			buf.putInt(pos, edx);
+			pos += 4;
 		}
 		
-		raw[pos++] = (byte) (ecx & 0xFF);
-		raw[pos++] = (byte) ((ecx >> 8) & 0xFF);
-		raw[pos++] = (byte) ((ecx >> 16) & 0xFF);
-		raw[pos++] = (byte) ((ecx >> 24) & 0xFF);
+		buf.putInt(pos, ecx);
 	}
 	
 	/**
@@ -196,10 +204,60 @@ public final class NewCrypt
 	 */
 	public void decrypt(byte[] raw, final int offset, final int size)
 	{
-		for (int i = offset; i < (offset + size); i += 8)
+		_cipher.decrypt(raw, offset, size);
+	}
+	
+	/**
+	 * Method to decrypt using Blowfish-Blockcipher in ECB mode.<br>
+	 * The blocks between the buffer position and limit are decrypted in place, the buffer may be direct.
+	 * @param buf the buffer with the data to be decrypted
+	 */
+	public void decrypt(ByteBuffer buf)
+	{
+		_cipher.decrypt(buf);
+	}
+	
+	/**
+	 * Method to decrypt using Blowfish-Blockcipher in ECB mode and verify the packet checksum in the same pass.<br>
+	 * Equivalent to {@link #decrypt(byte[], int, int)} followed by {@link #verifyChecksum(byte[], int, int)}, but the checksum is accumulated while each block is still hot in cache.<br>
+	 * Since the last word of a valid packet is the XOR of all the preceding ones, the checksum is valid when the XOR of every decrypted word is zero.<br>
+	 * This method does not do any error checking, since the calling code should ensure sizes.
+	 * @param raw the data array to be decrypted
+	 * @param offset the offset at which to start decrypting
+	 * @param size the number of bytes to be decrypted, multiple of 8
+	 * @return true if the checksum of the decrypted data is valid, false otherwise
+	 */
+	public boolean decryptAndVerifyChecksum(byte[] raw, final int offset, final int size)
+	{
+		int chksum = 0;
+		for (int i = offset, end = offset + size; i < end; i += 8)
 		{
 			_cipher.decryptBlock(raw, i);
+			chksum ^= readInt(raw, i) ^ readInt(raw, i + 4);
 		}
+		return (size > 4) && (chksum == 0);
+	}
+	
+	/**
+	 * Method to append the packet checksum and encrypt using Blowfish-Blockcipher in ECB mode in a single pass.<br>
+	 * Equivalent to {@link #appendChecksum(byte[], int, int)} followed by {@link #crypt(byte[], int, int)}, but the checksum is accumulated right before each block is encrypted.<br>
+	 * This method does not do any error checking, since the calling code should ensure sizes.
+	 * @param raw the data array to be encrypted, with the last 4 bytes reserved for the checksum
+	 * @param offset the offset at which to start encrypting
+	 * @param size the number of bytes to be encrypted, multiple of 8
+	 */
+	public void appendChecksumAndCrypt(byte[] raw, final int offset, final int size)
+	{
+		int chksum = 0;
+		int i = offset;
+		for (int last = (offset + size) - 8; i < last; i += 8)
+		{
+			chksum ^= readInt(raw, i) ^ readInt(raw, i + 4);
+			_cipher.encryptBlock(raw, i);
+		}
+		chksum ^= readInt(raw, i);
+		writeInt(raw, i + 4, chksum);
+		_cipher.encryptBlock(raw, i);
 	}
 	
 	/**
@@ -212,9 +270,41 @@ public final class NewCrypt
 	 */
 	public void crypt(byte[] raw, final int offset, final int size)
 	{
-		for (int i = offset; i < (offset + size); i += 8)
-		{
-			_cipher.encryptBlock(raw, i);
-		}
+		_cipher.encrypt(raw, offset, size);
+	}
+	
+	/**
+	 * Method to encrypt using Blowfish-Blockcipher in ECB mode.<br>
+	 * The blocks between the buffer position and limit are encrypted in place, the buffer may be direct.
+	 * @param buf the buffer with the data to be encrypted
+	 */
+	public void crypt(ByteBuffer buf)
+	{
+		_cipher.encrypt(buf);
+	}
+	
+	/**
+	 * Reads a little-endian int from the array.
+	 * @param raw the data array
+	 * @param pos the index of the first byte
+	 * @return the int
+	 */
+	private static int readInt(byte[] raw, int pos)
+	{
+		return (raw[pos] & 0xFF) | ((raw[pos + 1] & 0xFF) << 8) | ((raw[pos + 2] & 0xFF) << 16) | (raw[pos + 3] << 24);
+	}
+	
+	/**
+	 * Writes a little-endian int into the array.
+	 * @param raw the data array
+	 * @param pos the index of the first byte
+	 * @param value the int
+	 */
+	private static void writeInt(byte[] raw, int pos, int value)
+	{
+		raw[pos] = (byte) value;
+		raw[pos + 1] = (byte) (value >> 8);
+		raw[pos + 2] = (byte) (value >> 16);
+		raw[pos + 3] = (byte) (value >> 24);
 	}
 }
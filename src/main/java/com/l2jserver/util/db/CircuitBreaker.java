@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.util.db;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * Stops sending requests to a failing resource for a while, so callers fail fast instead of piling up behind it.<br>
+ * After {@code failureThreshold} consecutive failures the breaker opens and every request is refused. Once {@code openTime} has passed, a single request is let through as a probe: the breaker closes if it succeeds and opens again if it fails.
+ */
+public final class CircuitBreaker
+{
+	private static final Logger _log = Logger.getLogger(CircuitBreaker.class.getName());
+	
+	public static enum State
+	{
+		CLOSED,
+		OPEN,
+		HALF_OPEN
+	}
+	
+	private final String _name;
+	private final int _failureThreshold;
+	private final long _openTime;
+	
+	private final AtomicReference<State> _state = new AtomicReference<>(State.CLOSED);
+	private final AtomicInteger _failures = new AtomicInteger();
+	private volatile long _openedAt;
+	
+	/**
+	 * @param name the name of the protected resource, for the logs
+	 * @param failureThreshold the number of consecutive failures that opens the breaker
+	 * @param openTime the time in milliseconds before a probe is let through
+	 */
+	public CircuitBreaker(String name, int failureThreshold, long openTime)
+	{
+		_name = name;
+		_failureThreshold = Math.max(1, failureThreshold);
+		_openTime = openTime;
+	}
+	
+	/**
+	 * Must be followed by {@link #onSuccess()} or {@link #onFailure()} when it returns true.
+	 * @return true if the request can be made, false if it must fail right away
+	 */
+	public boolean tryAcquire()
+	{
+		switch (_state.get())
+		{
+			case CLOSED:
+				return true;
+			case OPEN:
+				// the first caller after the open time becomes the probe
+				return ((System.currentTimeMillis() - _openedAt) >= _openTime) && _state.compareAndSet(State.OPEN, State.HALF_OPEN);
+			default:
+				// a probe is running
+				return false;
+		}
+	}
+	
+	public void onSuccess()
+	{
+		_failures.set(0);
+		if (_state.getAndSet(State.CLOSED) != State.CLOSED)
+		{
+			_log.info(_name + " is available again.");
+		}
+	}
+	
+	public void onFailure()
+	{
+		if (_state.get() == State.HALF_OPEN)
+		{
+			open();
+		}
+		else if ((_failures.incrementAndGet() >= _failureThreshold) && _state.compareAndSet(State.CLOSED, State.OPEN))
+		{
+			_openedAt = System.currentTimeMillis();
+			_log.warning(_name + " failed " + _failureThreshold + " times in a row, requests will fail fast for " + _openTime + " ms.");
+		}
+	}
+	
+	private void open()
+	{
+		_openedAt = System.currentTimeMillis();
+		_state.set(State.OPEN);
+	}
+	
+	/**
+	 * @return false while the breaker refuses requests
+	 */
+	public boolean isClosed()
+	{
+		return _state.get() == State.CLOSED;
+	}
+	
+	public State getState()
+	{
+		return _state.get();
+	}
+	
+	@Override
+	public String toString()
+	{
+		return _name + ": " + _state.get() + ", " + _failures.get() + " consecutive failures";
+	}
+}
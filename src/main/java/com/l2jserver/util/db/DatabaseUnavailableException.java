@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.util.db;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown instead of waiting for a connection while the database is considered down.
+ */
+public class DatabaseUnavailableException extends SQLException
+{
+	private static final long serialVersionUID = 1L;
+	
+	public DatabaseUnavailableException(String reason)
+	{
+		super(reason);
+	}
+	
+	@Override
+	public synchronized Throwable fillInStackTrace()
+	{
+		// thrown a lot while the database is down, the stack trace is always the same
+		return this;
+	}
+}
@@ -20,8 +20,13 @@ package com.l2jserver.util.db;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -36,9 +41,41 @@ public class L2DatabaseFactory
 {
 	private static final Logger _log = Logger.getLogger(L2DatabaseFactory.class.getName());
 	
+	/** Maximum time between two scans of the checked out connections, in milliseconds. */
+	private static final long LEAK_SCAN_INTERVAL = 1000;
+	
+	/**
+	 * How checked out connections are tracked to report the ones never closed.
+	 */
+	public static enum LeakDetection
+	{
+		/** No tracking. */
+		OFF,
+		/** One checkout in {@link Config#CONNECTION_LEAK_SAMPLE_RATE} is tracked, with the stack trace of the caller. */
+		SAMPLED,
+		/** Every checkout is tracked, with the stack trace of the caller in debug mode only. */
+		FULL
+	}
+	
+	/**
+	 * The connection pool implementation.
+	 */
+	public static enum PoolType
+	{
+		/** c3p0 {@link ComboPooledDataSource}. */
+		C3P0,
+		/** The in-tree {@link ConnectionPool}. */
+		INTERNAL
+	}
+	
 	private static L2DatabaseFactory _instance;
 	private static volatile ScheduledExecutorService _executor;
 	private ComboPooledDataSource _source;
+	private ConnectionPool _pool;
+	private ReplicaSet _replicas;
+	/** Tracked connections with their checkout, closed ones are removed by the next scan. */
+	private final Map<Connection, Checkout> _checkouts = new ConcurrentHashMap<>();
+	private final CircuitBreaker _breaker = new CircuitBreaker("Database", Config.DATABASE_BREAKER_FAILURES, Config.DATABASE_BREAKER_OPEN_TIME);
 	
 	/**
 	 * Instantiates a new l2 database factory.
@@ -54,6 +91,15 @@ public class L2DatabaseFactory
 				_log.warning("A minimum of " + Config.DATABASE_MAX_CONNECTIONS + " db connections are required.");
 			}
 			
+			if (Config.DATABASE_POOL == PoolType.INTERNAL)
+			{
+				// opens and tests the first connection
+				_pool = new ConnectionPool(Config.DATABASE_DRIVER, Config.DATABASE_URL, Config.DATABASE_LOGIN, Config.DATABASE_PASSWORD, 10, Math.max(10, Config.DATABASE_MAX_CONNECTIONS), Config.DATABASE_CHECKOUT_TIMEOUT, Config.DATABASE_MAX_IDLE_TIME);
+				scheduleLeakScan();
+				setupReplicas();
+				return;
+			}
+			
 			_source = new ComboPooledDataSource();
 			_source.setAutoCommitOnClose(true);
 			
@@ -63,7 +109,7 @@ public class L2DatabaseFactory
 			
 			_source.setAcquireRetryAttempts(0); // try to obtain connections indefinitely (0 = never quit)
 			_source.setAcquireRetryDelay(500); // 500 milliseconds wait before try to acquire connection again
-			_source.setCheckoutTimeout(0); // 0 = wait indefinitely for new connection
+			_source.setCheckoutTimeout(Config.DATABASE_CHECKOUT_TIMEOUT); // 0 = wait indefinitely for new connection
 			// if pool is exhausted
 			_source.setAcquireIncrement(5); // if pool is exhausted, get 5 more connections at a time
 			// cause there is a "long" delay on acquire connection
@@ -99,6 +145,9 @@ public class L2DatabaseFactory
 			/* Test the connection */
 			_source.getConnection().close();
 			
+			scheduleLeakScan();
+			setupReplicas();
+			
 			if (Config.DEBUG)
 			{
 				_log.fine("Database Connection Working");
@@ -123,11 +172,44 @@ public class L2DatabaseFactory
 		}
 	}
 	
+	private void scheduleLeakScan()
+	{
+		if (Config.CONNECTION_LEAK_DETECTION != LeakDetection.OFF)
+		{
+			final long interval = Math.max(1, Math.min(LEAK_SCAN_INTERVAL, Config.CONNECTION_CLOSE_TIME / 2));
+			getExecutor().scheduleWithFixedDelay(this::scanCheckouts, interval, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	private void setupReplicas()
+	{
+		final ReplicaSet replicas = new ReplicaSet(Config.REPLICA_URLS);
+		if (replicas.isEmpty())
+		{
+			return;
+		}
+		
+		replicas.checkHealth();
+		getExecutor().scheduleWithFixedDelay(replicas::checkHealth, Config.REPLICA_CHECK_INTERVAL, Config.REPLICA_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+		_replicas = replicas;
+		_log.info("Database: " + replicas);
+	}
+	
 	/**
 	 * Shutdown.
 	 */
 	public void shutdown()
 	{
+		if (_replicas != null)
+		{
+			_replicas.close();
+		}
+		if (_pool != null)
+		{
+			_pool.close();
+			return;
+		}
+		
 		try
 		{
 			_source.close();
@@ -164,68 +246,157 @@ public class L2DatabaseFactory
 	}
 	
 	/**
-	 * Gets the connection.
+	 * Gets a connection, waiting at most {@link Config#DATABASE_CHECKOUT_TIMEOUT} milliseconds for it.<br>
+	 * After {@link Config#DATABASE_BREAKER_FAILURES} failures in a row the database is considered down and this method fails right away, until a probe checkout succeeds.
 	 * @return the connection
+	 * @throws SQLException if no connection could be obtained, {@link DatabaseUnavailableException} if the database is considered down
 	 */
-	public Connection getConnection()
+	public Connection getConnection() throws SQLException
 	{
-		Connection con = null;
-		while (con == null)
+		if (!_breaker.tryAcquire())
 		{
-			try
-			{
-				con = _source.getConnection();
-				getExecutor().schedule(new ConnectionCloser(con, new RuntimeException()), Config.CONNECTION_CLOSE_TIME, TimeUnit.MILLISECONDS);
-			}
-			catch (SQLException e)
+			throw new DatabaseUnavailableException("Database unavailable.");
+		}
+		
+		final Connection con;
+		try
+		{
+			con = _pool != null ? _pool.getConnection() : _source.getConnection();
+		}
+		catch (SQLException e)
+		{
+			_breaker.onFailure();
+			_log.log(Level.WARNING, "L2DatabaseFactory: getConnection() failed " + e.getMessage(), e);
+			throw e;
+		}
+		_breaker.onSuccess();
+		trackCheckout(con);
+		return con;
+	}
+	
+	/**
+	 * Gets a connection for reads that can see data slightly behind the primary, from a healthy read replica if there is one, from the primary otherwise.<br>
+	 * Reads that must see a write just made have to use {@link #getConnection()}.
+	 * @return the connection
+	 * @throws SQLException if no connection could be obtained
+	 */
+	public Connection getReadConnection() throws SQLException
+	{
+		if (_replicas != null)
+		{
+			final Connection con = _replicas.getConnection();
+			if (con != null)
 			{
-				_log.log(Level.WARNING, "L2DatabaseFactory: getConnection() failed, trying again " + e.getMessage(), e);
+				trackCheckout(con);
+				return con;
 			}
 		}
-		return con;
+		return getConnection();
 	}
 	
 	/**
-	 * The Class ConnectionCloser.
+	 * @return true if reads can go to replicas
 	 */
-	private static class ConnectionCloser implements Runnable
+	public boolean hasReplicas()
 	{
-		private static final Logger _log = Logger.getLogger(ConnectionCloser.class.getName());
-		
-		/** The connection. */
-		private final Connection c;
-		
-		/** The exception. */
-		private final RuntimeException exp;
-		
-		/**
-		 * Instantiates a new connection closer.
-		 * @param con the con
-		 * @param e the e
-		 */
-		public ConnectionCloser(Connection con, RuntimeException e)
+		return _replicas != null;
+	}
+	
+	/**
+	 * @return false while the database is considered down and connections are refused
+	 */
+	public static boolean isAvailable()
+	{
+		final L2DatabaseFactory instance = _instance;
+		return (instance == null) || instance._breaker.isClosed();
+	}
+	
+	public CircuitBreaker getCircuitBreaker()
+	{
+		return _breaker;
+	}
+	
+	/**
+	 * Registers the checkout according to the leak detection mode.
+	 * @param con the connection
+	 */
+	private void trackCheckout(Connection con)
+	{
+		final boolean withTrace;
+		switch (Config.CONNECTION_LEAK_DETECTION)
 		{
-			c = con;
-			exp = e;
+			case SAMPLED:
+				if (ThreadLocalRandom.current().nextInt(Config.CONNECTION_LEAK_SAMPLE_RATE) != 0)
+				{
+					return;
+				}
+				withTrace = true;
+				break;
+			case FULL:
+				withTrace = Config.DEBUG;
+				break;
+			default:
+				return;
 		}
-		
-		@Override
-		public void run()
+		_checkouts.put(con, new Checkout(System.currentTimeMillis(), Thread.currentThread().getName(), withTrace ? new RuntimeException() : null));
+	}
+	
+	/**
+	 * Forgets the closed connections and reports the ones checked out for longer than {@link Config#CONNECTION_CLOSE_TIME}.
+	 */
+	private void scanCheckouts()
+	{
+		final long now = System.currentTimeMillis();
+		final Iterator<Entry<Connection, Checkout>> it = _checkouts.entrySet().iterator();
+		while (it.hasNext())
 		{
+			final Entry<Connection, Checkout> entry = it.next();
+			final Checkout checkout = entry.getValue();
 			try
 			{
-				if (!c.isClosed())
+				if (entry.getKey().isClosed())
 				{
-					_log.log(Level.WARNING, "Unclosed connection! Trace: " + exp.getStackTrace()[1], exp);
+					it.remove();
+				}
+				else if ((now - checkout._time) >= Config.CONNECTION_CLOSE_TIME)
+				{
+					it.remove();
+					if (checkout._trace != null)
+					{
+						_log.log(Level.WARNING, "Unclosed connection! Trace: " + checkout._trace.getStackTrace()[2], checkout._trace);
+					}
+					else
+					{
+						_log.warning("Unclosed connection checked out by thread " + checkout._threadName + "!");
+					}
 				}
 			}
 			catch (SQLException e)
 			{
+				it.remove();
 				_log.log(Level.WARNING, "", e);
 			}
 		}
 	}
 	
+	/**
+	 * A connection checkout.
+	 */
+	private static final class Checkout
+	{
+		protected final long _time;
+		protected final String _threadName;
+		/** Where the connection was checked out, null if not captured. */
+		protected final RuntimeException _trace;
+		
+		public Checkout(long time, String threadName, RuntimeException trace)
+		{
+			_time = time;
+			_threadName = threadName;
+			_trace = trace;
+		}
+	}
+	
 	/**
 	 * Gets the executor.
 	 * @return the executor
@@ -252,7 +423,7 @@ public class L2DatabaseFactory
 	 */
 	public int getBusyConnectionCount() throws SQLException
 	{
-		return _source.getNumBusyConnectionsDefaultUser();
+		return _pool != null ? _pool.getBusyCount() : _source.getNumBusyConnectionsDefaultUser();
 	}
 	
 	/**
@@ -262,6 +433,30 @@ public class L2DatabaseFactory
 	 */
 	public int getIdleConnectionCount() throws SQLException
 	{
-		return _source.getNumIdleConnectionsDefaultUser();
+		return _pool != null ? _pool.getIdleCount() : _source.getNumIdleConnectionsDefaultUser();
+	}
+	
+	/**
+	 * @return the connection pool statistics
+	 */
+	public String getPoolStatus()
+	{
+		String status;
+		if (_pool != null)
+		{
+			status = _pool.toString();
+		}
+		else
+		{
+			try
+			{
+				status = "Connection pool (c3p0): " + _source.getNumBusyConnectionsDefaultUser() + " busy, " + _source.getNumIdleConnectionsDefaultUser() + " idle, " + _source.getNumThreadsAwaitingCheckoutDefaultUser() + " waiting";
+			}
+			catch (SQLException e)
+			{
+				status = "Connection pool (c3p0): " + e.getMessage();
+			}
+		}
+		return _replicas != null ? status + System.lineSeparator() + _replicas : status;
 	}
 }
@@ -0,0 +1,479 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.util.db;
+
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+
+/**
+ * The connection handed out by {@link ConnectionPool}, closing it gives the physical connection back to the pool.<br>
+ * The state changed by the user (auto commit, read only, isolation, catalog) is restored before the connection is reused, pending work is committed as c3p0 does with {@code autoCommitOnClose}.
+ */
+final class PooledConnection implements Connection
+{
+	private final ConnectionPool _pool;
+	private final ConnectionPool.PoolEntry _entry;
+	private final Connection _con;
+	private boolean _closed;
+	
+	private boolean _autoCommitChanged;
+	private boolean _readOnlyChanged;
+	private boolean _isolationChanged;
+	private boolean _catalogChanged;
+	
+	PooledConnection(ConnectionPool pool, ConnectionPool.PoolEntry entry)
+	{
+		_pool = pool;
+		_entry = entry;
+		_con = entry._connection;
+	}
+	
+	private void checkOpen() throws SQLException
+	{
+		if (_closed)
+		{
+			throw new SQLException("Connection is closed.");
+		}
+	}
+	
+	@Override
+	public void close() throws SQLException
+	{
+		if (_closed)
+		{
+			return;
+		}
+		_closed = true;
+		
+		boolean broken = false;
+		try
+		{
+			if (_autoCommitChanged && !_con.getAutoCommit())
+			{
+				_con.commit();
+				_con.setAutoCommit(true);
+			}
+			if (_readOnlyChanged)
+			{
+				_con.setReadOnly(false);
+			}
+			if (_isolationChanged)
+			{
+				_con.setTransactionIsolation(_pool.getDefaultIsolation());
+			}
+			if (_catalogChanged)
+			{
+				_con.setCatalog(_pool.getDefaultCatalog());
+			}
+			_con.clearWarnings();
+		}
+		catch (SQLException e)
+		{
+			broken = true;
+		}
+		_pool.release(_entry, broken);
+	}
+	
+	@Override
+	public boolean isClosed() throws SQLException
+	{
+		return _closed;
+	}
+	
+	@Override
+	public void setAutoCommit(boolean autoCommit) throws SQLException
+	{
+		checkOpen();
+		_con.setAutoCommit(autoCommit);
+		_autoCommitChanged = true;
+	}
+	
+	@Override
+	public void setReadOnly(boolean readOnly) throws SQLException
+	{
+		checkOpen();
+		_con.setReadOnly(readOnly);
+		_readOnlyChanged = true;
+	}
+	
+	@Override
+	public void setTransactionIsolation(int level) throws SQLException
+	{
+		checkOpen();
+		_con.setTransactionIsolation(level);
+		_isolationChanged = true;
+	}
+	
+	@Override
+	public void setCatalog(String catalog) throws SQLException
+	{
+		checkOpen();
+		_con.setCatalog(catalog);
+		_catalogChanged = true;
+	}
+	
+	@Override
+	public void abort(Executor executor) throws SQLException
+	{
+		_closed = true;
+		_pool.release(_entry, true);
+	}
+	
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException
+	{
+		return iface.isInstance(this) ? iface.cast(this) : _con.unwrap(iface);
+	}
+	
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException
+	{
+		return iface.isInstance(this) || _con.isWrapperFor(iface);
+	}
+	
+	@Override
+	public boolean isValid(int timeout) throws SQLException
+	{
+		return !_closed && _con.isValid(timeout);
+	}
+	
+	// Plain delegation below
+	
+	@Override
+	public Statement createStatement() throws SQLException
+	{
+		checkOpen();
+		return _con.createStatement();
+	}
+	
+	@Override
+	public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException
+	{
+		checkOpen();
+		return _con.createStatement(resultSetType, resultSetConcurrency);
+	}
+	
+	@Override
+	public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException
+	{
+		checkOpen();
+		return _con.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability);
+	}
+	
+	@Override
+	public PreparedStatement prepareStatement(String sql) throws SQLException
+	{
+		checkOpen();
+		return _con.prepareStatement(sql);
+	}
+	
+	@Override
+	public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException
+	{
+		checkOpen();
+		return _con.prepareStatement(sql, autoGeneratedKeys);
+	}
+	
+	@Override
+	public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException
+	{
+		checkOpen();
+		return _con.prepareStatement(sql, resultSetType, resultSetConcurrency);
+	}
+	
+	@Override
+	public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException
+	{
+		checkOpen();
+		return _con.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+	}
+	
+	@Override
+	public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException
+	{
+		checkOpen();
+		return _con.prepareStatement(sql, columnIndexes);
+	}
+	
+	@Override
+	public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException
+	{
+		checkOpen();
+		return _con.prepareStatement(sql, columnNames);
+	}
+	
+	@Override
+	public CallableStatement prepareCall(String sql) throws SQLException
+	{
+		checkOpen();
+		return _con.prepareCall(sql);
+	}
+	
+	@Override
+	public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException
+	{
+		checkOpen();
+		return _con.prepareCall(sql, resultSetType, resultSetConcurrency);
+	}
+	
+	@Override
+	public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException
+	{
+		checkOpen();
+		return _con.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+	}
+	
+	@Override
+	public String nativeSQL(String sql) throws SQLException
+	{
+		checkOpen();
+		return _con.nativeSQL(sql);
+	}
+	
+	@Override
+	public boolean getAutoCommit() throws SQLException
+	{
+		checkOpen();
+		return _con.getAutoCommit();
+	}
+	
+	@Override
+	public void commit() throws SQLException
+	{
+		checkOpen();
+		_con.commit();
+	}
+	
+	@Override
+	public void rollback() throws SQLException
+	{
+		checkOpen();
+		_con.rollback();
+	}
+	
+	@Override
+	public void rollback(Savepoint savepoint) throws SQLException
+	{
+		checkOpen();
+		_con.rollback(savepoint);
+	}
+	
+	@Override
+	public Savepoint setSavepoint() throws SQLException
+	{
+		checkOpen();
+		return _con.setSavepoint();
+	}
+	
+	@Override
+	public Savepoint setSavepoint(String name) throws SQLException
+	{
+		checkOpen();
+		return _con.setSavepoint(name);
+	}
+	
+	@Override
+	public void releaseSavepoint(Savepoint savepoint) throws SQLException
+	{
+		checkOpen();
+		_con.releaseSavepoint(savepoint);
+	}
+	
+	@Override
+	public DatabaseMetaData getMetaData() throws SQLException
+	{
+		checkOpen();
+		return _con.getMetaData();
+	}
+	
+	@Override
+	public boolean isReadOnly() throws SQLException
+	{
+		checkOpen();
+		return _con.isReadOnly();
+	}
+	
+	@Override
+	public String getCatalog() throws SQLException
+	{
+		checkOpen();
+		return _con.getCatalog();
+	}
+	
+	@Override
+	public int getTransactionIsolation() throws SQLException
+	{
+		checkOpen();
+		return _con.getTransactionIsolation();
+	}
+	
+	@Override
+	public SQLWarning getWarnings() throws SQLException
+	{
+		checkOpen();
+		return _con.getWarnings();
+	}
+	
+	@Override
+	public void clearWarnings() throws SQLException
+	{
+		checkOpen();
+		_con.clearWarnings();
+	}
+	
+	@Override
+	public Map<String, Class<?>> getTypeMap() throws SQLException
+	{
+		checkOpen();
+		return _con.getTypeMap();
+	}
+	
+	@Override
+	public void setTypeMap(Map<String, Class<?>> map) throws SQLException
+	{
+		checkOpen();
+		_con.setTypeMap(map);
+	}
+	
+	@Override
+	public void setHoldability(int holdability) throws SQLException
+	{
+		checkOpen();
+		_con.setHoldability(holdability);
+	}
+	
+	@Override
+	public int getHoldability() throws SQLException
+	{
+		checkOpen();
+		return _con.getHoldability();
+	}
+	
+	@Override
+	public Clob createClob() throws SQLException
+	{
+		checkOpen();
+		return _con.createClob();
+	}
+	
+	@Override
+	public Blob createBlob() throws SQLException
+	{
+		checkOpen();
+		return _con.createBlob();
+	}
+	
+	@Override
+	public NClob createNClob() throws SQLException
+	{
+		checkOpen();
+		return _con.createNClob();
+	}
+	
+	@Override
+	public SQLXML createSQLXML() throws SQLException
+	{
+		checkOpen();
+		return _con.createSQLXML();
+	}
+	
+	@Override
+	public void setClientInfo(String name, String value) throws SQLClientInfoException
+	{
+		_con.setClientInfo(name, value);
+	}
+	
+	@Override
+	public void setClientInfo(Properties properties) throws SQLClientInfoException
+	{
+		_con.setClientInfo(properties);
+	}
+	
+	@Override
+	public String getClientInfo(String name) throws SQLException
+	{
+		checkOpen();
+		return _con.getClientInfo(name);
+	}
+	
+	@Override
+	public Properties getClientInfo() throws SQLException
+	{
+		checkOpen();
+		return _con.getClientInfo();
+	}
+	
+	@Override
+	public Array createArrayOf(String typeName, Object[] elements) throws SQLException
+	{
+		checkOpen();
+		return _con.createArrayOf(typeName, elements);
+	}
+	
+	@Override
+	public Struct createStruct(String typeName, Object[] attributes) throws SQLException
+	{
+		checkOpen();
+		return _con.createStruct(typeName, attributes);
+	}
+	
+	@Override
+	public void setSchema(String schema) throws SQLException
+	{
+		checkOpen();
+		_con.setSchema(schema);
+	}
+	
+	@Override
+	public String getSchema() throws SQLException
+	{
+		checkOpen();
+		return _con.getSchema();
+	}
+	
+	@Override
+	public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException
+	{
+		checkOpen();
+		_con.setNetworkTimeout(executor, milliseconds);
+	}
+	
+	@Override
+	public int getNetworkTimeout() throws SQLException
+	{
+		checkOpen();
+		return _con.getNetworkTimeout();
+	}
+}
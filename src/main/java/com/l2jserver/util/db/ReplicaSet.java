@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.util.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import com.l2jserver.login.Config;
+
+/**
+ * The read replicas of the database, each with its own {@link ConnectionPool}.<br>
+ * A periodic health check measures the replication lag of every replica. Replicas that can't be reached, don't replicate or lag more than {@link Config#REPLICA_MAX_LAG} seconds are left out until a later check finds them fine again.<br>
+ * A server that is not a replica is down, unless {@link Config#REPLICA_ALLOW_STANDALONE} is enabled for testing with two independent local instances.
+ */
+public final class ReplicaSet
+{
+	private static final Logger _log = Logger.getLogger(ReplicaSet.class.getName());
+	
+	private final List<Replica> _replicas = new ArrayList<>();
+	private final AtomicInteger _next = new AtomicInteger();
+	
+	/**
+	 * @param urls the JDBC URLs of the replicas, they use the primary driver and credentials
+	 */
+	public ReplicaSet(String[] urls)
+	{
+		for (String url : urls)
+		{
+			if (!url.trim().isEmpty())
+			{
+				_replicas.add(new Replica(url.trim()));
+			}
+		}
+	}
+	
+	public boolean isEmpty()
+	{
+		return _replicas.isEmpty();
+	}
+	
+	/**
+	 * @return a connection to a healthy replica, round robin, or null if there is none
+	 */
+	public Connection getConnection()
+	{
+		final int count = _replicas.size();
+		final int start = Math.floorMod(_next.getAndIncrement(), count);
+		for (int i = 0; i < count; i++)
+		{
+			final Replica replica = _replicas.get((start + i) % count);
+			final ConnectionPool pool = replica._pool;
+			if (!replica._healthy || (pool == null))
+			{
+				continue;
+			}
+			
+			try
+			{
+				return pool.getConnection();
+			}
+			catch (SQLException e)
+			{
+				replica.setHealthy(false, "checkout failed: " + e.getMessage());
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Checks every replica, opening its pool if needed.
+	 */
+	public void checkHealth()
+	{
+		for (Replica replica : _replicas)
+		{
+			replica.check();
+		}
+	}
+	
+	public void close()
+	{
+		for (Replica replica : _replicas)
+		{
+			final ConnectionPool pool = replica._pool;
+			if (pool != null)
+			{
+				pool.close();
+			}
+		}
+	}
+	
+	@Override
+	public String toString()
+	{
+		final StringBuilder sb = new StringBuilder("Replicas:");
+		for (Replica replica : _replicas)
+		{
+			sb.append(' ').append(replica._url).append(replica._healthy ? " up" : " down").append(" (lag ").append(replica._lag).append(" s)");
+		}
+		return sb.toString();
+	}
+	
+	private static final class Replica
+	{
+		/** Lag of a server which is not a replica. */
+		private static final long STANDALONE = -2;
+		
+		protected final String _url;
+		protected volatile ConnectionPool _pool;
+		protected volatile boolean _healthy;
+		/** Replication lag in seconds, -1 if unknown, {@link #STANDALONE} if not a replica. */
+		protected volatile long _lag = -1;
+		
+		public Replica(String url)
+		{
+			_url = url;
+		}
+		
+		public void check()
+		{
+			try
+			{
+				if (_pool == null)
+				{
+					_pool = new ConnectionPool(Config.DATABASE_DRIVER, _url, Config.DATABASE_LOGIN, Config.DATABASE_PASSWORD, 2, Math.max(2, Config.DATABASE_MAX_CONNECTIONS), Config.DATABASE_CHECKOUT_TIMEOUT, Config.DATABASE_MAX_IDLE_TIME);
+				}
+				
+				long lag;
+				try (Connection con = _pool.getConnection())
+				{
+					lag = readLag(con);
+				}
+				if ((lag == STANDALONE) && Config.REPLICA_ALLOW_STANDALONE)
+				{
+					lag = 0;
+				}
+				_lag = lag;
+				
+				if (_lag == STANDALONE)
+				{
+					setHealthy(false, "not a replica");
+				}
+				else if (_lag < 0)
+				{
+					setHealthy(false, "replication is not running");
+				}
+				else if (_lag > Config.REPLICA_MAX_LAG)
+				{
+					setHealthy(false, "lagging " + _lag + " seconds behind");
+				}
+				else
+				{
+					setHealthy(true, "lag " + _lag + " seconds");
+				}
+			}
+			catch (SQLException e)
+			{
+				_lag = -1;
+				setHealthy(false, e.getMessage());
+			}
+		}
+		
+		public void setHealthy(boolean healthy, String reason)
+		{
+			if (_healthy != healthy)
+			{
+				_healthy = healthy;
+				_log.info("Replica " + _url + " is " + (healthy ? "up" : "down") + ": " + reason + ".");
+			}
+		}
+		
+		/**
+		 * @param con a connection to the replica
+		 * @return the replication lag in seconds, {@link #STANDALONE} if the server is not a replica, -1 if the replication is broken
+		 * @throws SQLException if the status could not be read
+		 */
+		private static long readLag(Connection con) throws SQLException
+		{
+			try (PreparedStatement ps = con.prepareStatement("SHOW REPLICA STATUS");
+				ResultSet rset = ps.executeQuery())
+			{
+				return readLag(rset, "Seconds_Behind_Source");
+			}
+			catch (SQLException e)
+			{
+				// before MySQL 8.0.22
+				try (PreparedStatement ps = con.prepareStatement("SHOW SLAVE STATUS");
+					ResultSet rset = ps.executeQuery())
+				{
+					return readLag(rset, "Seconds_Behind_Master");
+				}
+			}
+		}
+		
+		private static long readLag(ResultSet rset, String column) throws SQLException
+		{
+			if (!rset.next())
+			{
+				return STANDALONE;
+			}
+			final long lag = rset.getLong(column);
+			return rset.wasNull() ? -1 : lag;
+		}
+	}
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.util.network;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.l2jserver.util.network.IPBanTrie.BanVisitor;
+
+/**
+ * Banned IPv4 and IPv6 networks in an array of fixed size records sorted by address, which lookups read in place: the array can be a memory mapped file.<br>
+ * Two networks are either nested or disjoint, so every record keeps the index of the closest record including it. A lookup binary searches the last network starting at or before the address, then follows these links: the networks including the address are all on that path, at most one per bit of the address.<br>
+ * Records never change. Bans can be lifted, which only marks their record until the table is dropped. Lookups don't lock and allocate nothing unless a ban was lifted.<br>
+ * Expired bans are skipped by lookups, but are kept and counted until the table is built again.
+ */
+public final class IPBanTable
+{
+	/** Network address as two longs, expiration, index of the including record, address length and prefix length. */
+	public static final int RECORD_SIZE = 32;
+	
+	private static final int EXPIRATION = 16;
+	private static final int PARENT = 24;
+	private static final int ADDRESS_LENGTH = 28;
+	private static final int PREFIX_LENGTH = 29;
+	
+	private final ByteBuffer _records;
+	private final int _size;
+	/** IPv4 networks come first, then IPv6 ones. */
+	private final int _ipv4Count;
+	/** Indexes of the lifted bans. */
+	private final Set<Integer> _lifted = ConcurrentHashMap.newKeySet();
+	
+	/**
+	 * @param records the records, from the position to the limit of the buffer
+	 * @param ipv4Count the number of IPv4 networks
+	 */
+	public IPBanTable(ByteBuffer records, int ipv4Count)
+	{
+		if ((records.remaining() % RECORD_SIZE) != 0)
+		{
+			throw new IllegalArgumentException("Truncated record");
+		}
+		_records = records.slice();
+		_size = _records.capacity() / RECORD_SIZE;
+		if ((ipv4Count < 0) || (ipv4Count > _size))
+		{
+			throw new IllegalArgumentException("Invalid IPv4 count: " + ipv4Count);
+		}
+		_ipv4Count = ipv4Count;
+	}
+	
+	/**
+	 * @param address the address, 4 or 16 bytes
+	 * @param now the current time in milliseconds
+	 * @return true if a network including the address has a ban not lifted nor expired yet
+	 */
+	public boolean isBanned(byte[] address, long now)
+	{
+		final long hi = IPBanTrie.high(address);
+		final long lo = IPBanTrie.low(address);
+		int index = address.length == 4 ? floor(0, _ipv4Count, hi, lo) : floor(_ipv4Count, _size, hi, lo);
+		while (index >= 0)
+		{
+			final int offset = index * RECORD_SIZE;
+			final int prefixLength = _records.get(offset + PREFIX_LENGTH) & 0xFF;
+			if ((IPBanTrie.mask(hi, prefixLength) == _records.getLong(offset)) && (IPBanTrie.mask(lo, prefixLength - 64) == _records.getLong(offset + 8)))
+			{
+				final long expiration = _records.getLong(offset + EXPIRATION);
+				if (((expiration == IPBanTrie.PERMANENT) || (expiration > now)) && (_lifted.isEmpty() || !_lifted.contains(index)))
+				{
+					return true;
+				}
+			}
+			
+			// links always point backwards, even in a damaged file
+			final int parent = _records.getInt(offset + PARENT);
+			index = parent < index ? parent : -1;
+		}
+		return false;
+	}
+	
+	/**
+	 * Lifts the ban of a network until the table is dropped.
+	 * @param address the network address, 4 or 16 bytes
+	 * @param prefixLength the number of significant bits of the address
+	 * @return true if the network was banned
+	 */
+	public boolean remove(byte[] address, int prefixLength)
+	{
+		IPBanTrie.checkPrefix(address, prefixLength);
+		final long hi = IPBanTrie.mask(IPBanTrie.high(address), prefixLength);
+		final long lo = IPBanTrie.mask(IPBanTrie.low(address), prefixLength - 64);
+		int index = address.length == 4 ? floor(0, _ipv4Count, hi, lo) : floor(_ipv4Count, _size, hi, lo);
+		// networks sharing their address are sorted by prefix length, then linked from the longest
+		while ((index >= 0) && (_records.getLong(index * RECORD_SIZE) == hi) && (_records.getLong((index * RECORD_SIZE) + 8) == lo))
+		{
+			final int offset = index * RECORD_SIZE;
+			if ((_records.get(offset + PREFIX_LENGTH) & 0xFF) == prefixLength)
+			{
+				return _lifted.add(index);
+			}
+			final int parent = _records.getInt(offset + PARENT);
+			index = parent < index ? parent : -1;
+		}
+		return false;
+	}
+	
+	/**
+	 * @return the number of networks, including expired and lifted bans
+	 */
+	public int size()
+	{
+		return _size;
+	}
+	
+	/**
+	 * @return the number of IPv4 networks, stored before the IPv6 ones
+	 */
+	public int getIPv4Count()
+	{
+		return _ipv4Count;
+	}
+	
+	/**
+	 * @return the records, to write them to a file
+	 */
+	public ByteBuffer getRecords()
+	{
+		return _records.duplicate();
+	}
+	
+	/**
+	 * Visits every ban not lifted, expired ones included, IPv4 networks first, in address order.
+	 * @param visitor the visitor
+	 */
+	public void forEach(BanVisitor visitor)
+	{
+		for (int index = 0; index < _size; index++)
+		{
+			if (!_lifted.isEmpty() && _lifted.contains(index))
+			{
+				continue;
+			}
+			
+			final int offset = index * RECORD_SIZE;
+			final byte[] address = new byte[_records.get(offset + ADDRESS_LENGTH)];
+			final long hi = _records.getLong(offset);
+			final long lo = _records.getLong(offset + 8);
+			for (int i = 0; i < address.length; i++)
+			{
+				address[i] = (byte) (i < 8 ? hi >>> (56 - (i * 8)) : lo >>> (120 - (i * 8)));
+			}
+			visitor.visit(address, _records.get(offset + PREFIX_LENGTH) & 0xFF, _records.getLong(offset + EXPIRATION));
+		}
+	}
+	
+	/**
+	 * @return the index of the last record of the range starting at or before the given address, -1 if there is none
+	 */
+	private int floor(int from, int to, long hi, long lo)
+	{
+		int low = from;
+		int high = to - 1;
+		int result = -1;
+		while (low <= high)
+		{
+			final int middle = (low + high) >>> 1;
+			final int offset = middle * RECORD_SIZE;
+			int cmp = Long.compareUnsigned(_records.getLong(offset), hi);
+			if (cmp == 0)
+			{
+				cmp = Long.compareUnsigned(_records.getLong(offset + 8), lo);
+			}
+			if (cmp <= 0)
+			{
+				result = middle;
+				low = middle + 1;
+			}
+			else
+			{
+				high = middle - 1;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Collects networks and builds a table of them. A network added twice keeps its later expiration.
+	 */
+	public static final class Builder implements BanVisitor
+	{
+		private long[] _hi = new long[1024];
+		private long[] _lo = new long[1024];
+		private long[] _expiration = new long[1024];
+		private byte[] _addressLength = new byte[1024];
+		private byte[] _prefixLength = new byte[1024];
+		private int _count;
+		
+		/**
+		 * @param address the network address, 4 or 16 bytes
+		 * @param prefixLength the number of significant bits of the address
+		 * @param expiration time in milliseconds when the ban is over, {@link IPBanTrie#PERMANENT} for no end
+		 */
+		public void add(byte[] address, int prefixLength, long expiration)
+		{
+			IPBanTrie.checkPrefix(address, prefixLength);
+			if (_count == _hi.length)
+			{
+				final int capacity = _count * 2;
+				_hi = Arrays.copyOf(_hi, capacity);
+				_lo = Arrays.copyOf(_lo, capacity);
+				_expiration = Arrays.copyOf(_expiration, capacity);
+				_addressLength = Arrays.copyOf(_addressLength, capacity);
+				_prefixLength = Arrays.copyOf(_prefixLength, capacity);
+			}
+			_hi[_count] = IPBanTrie.mask(IPBanTrie.high(address), prefixLength);
+			_lo[_count] = IPBanTrie.mask(IPBanTrie.low(address), prefixLength - 64);
+			_expiration[_count] = expiration;
+			_addressLength[_count] = (byte) address.length;
+			_prefixLength[_count] = (byte) prefixLength;
+			_count++;
+		}
+		
+		@Override
+		public void visit(byte[] address, int prefixLength, long expiration)
+		{
+			add(address, prefixLength, expiration);
+		}
+		
+		/**
+		 * @return a table of the networks added, in a heap buffer
+		 */
+		public IPBanTable build()
+		{
+			final Integer[] order = new Integer[_count];
+			for (int i = 0; i < _count; i++)
+			{
+				order[i] = i;
+			}
+			Arrays.sort(order, (a, b) ->
+			{
+				if (_addressLength[a] != _addressLength[b])
+				{
+					return Integer.compare(_addressLength[a], _addressLength[b]);
+				}
+				int cmp = Long.compareUnsigned(_hi[a], _hi[b]);
+				if (cmp == 0)
+				{
+					cmp = Long.compareUnsigned(_lo[a], _lo[b]);
+				}
+				return cmp != 0 ? cmp : Integer.compare(_prefixLength[a] & 0xFF, _prefixLength[b] & 0xFF);
+			});
+			
+			final ByteBuffer records = ByteBuffer.allocate(_count * RECORD_SIZE);
+			// records including the current one, the closest last
+			final int[] including = new int[130];
+			int depth = 0;
+			int size = 0;
+			int ipv4Count = 0;
+			for (int i = 0; i < _count; i++)
+			{
+				final int next = order[i];
+				final boolean ipv4 = _addressLength[next] == 4;
+				final int prefixLength = _prefixLength[next] & 0xFF;
+				final long hi = _hi[next];
+				final long lo = _lo[next];
+				final long expiration = _expiration[next];
+				
+				if (size > 0)
+				{
+					final int last = (size - 1) * RECORD_SIZE;
+					final boolean lastIPv4 = records.get(last + ADDRESS_LENGTH) == 4;
+					if (lastIPv4 != ipv4)
+					{
+						depth = 0;
+					}
+					else if ((records.getLong(last) == hi) && (records.getLong(last + 8) == lo) && ((records.get(last + PREFIX_LENGTH) & 0xFF) == prefixLength))
+					{
+						final long current = records.getLong(last + EXPIRATION);
+						if ((current != IPBanTrie.PERMANENT) && ((expiration == IPBanTrie.PERMANENT) || (expiration > current)))
+						{
+							records.putLong(last + EXPIRATION, expiration);
+						}
+						continue;
+					}
+				}
+				
+				while (depth > 0)
+				{
+					final int parent = including[depth - 1] * RECORD_SIZE;
+					final int parentLength = records.get(parent + PREFIX_LENGTH) & 0xFF;
+					if ((IPBanTrie.mask(hi, parentLength) == records.getLong(parent)) && (IPBanTrie.mask(lo, parentLength - 64) == records.getLong(parent + 8)))
+					{
+						break;
+					}
+					depth--;
+				}
+				
+				final int offset = size * RECORD_SIZE;
+				records.putLong(offset, hi);
+				records.putLong(offset + 8, lo);
+				records.putLong(offset + EXPIRATION, expiration);
+				records.putInt(offset + PARENT, depth > 0 ? including[depth - 1] : -1);
+				records.put(offset + ADDRESS_LENGTH, _addressLength[next]);
+				records.put(offset + PREFIX_LENGTH, (byte) prefixLength);
+				including[depth++] = size;
+				size++;
+				if (ipv4)
+				{
+					ipv4Count++;
+				}
+			}
+			records.limit(size * RECORD_SIZE);
+			return new IPBanTable(records, ipv4Count);
+		}
+	}
+}
@@ -0,0 +1,599 @@
+/*
+ * Copyright (C) 2004-2015 L2J Server
+ * 
+ * This file is part of L2J Server.
+ * 
+ * L2J Server is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * L2J Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.l2jserver.util.network;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Banned IPv4 and IPv6 networks, each with its own expiration, in a path compressed binary radix trie.<br>
+ * A lookup walks at most one node per bit of the address, compares the raw address bits as two longs and allocates nothing, so it can run on every accepted connection.<br>
+ * IPv4 networks of {@value #IPV4_SLOT_BITS} bits or more are split in one trie per {@code /16}, indexed by the first two bytes, so a lookup skips the top of the trie that every address would walk anyway.<br>
+ * Lookups don't lock: nodes are fully built before they are linked, and only the links and expirations change afterwards. Changes are serialized on the trie.<br>
+ * Lookups skip expired bans, which are removed by {@link #sweep(long)} in expiration order: every ban with an end gets an entry in a priority queue, entries of bans extended or lifted since are dropped when they come up.
+ */
+public final class IPBanTrie
+{
+	/** Expiration of a permanent ban. */
+	public static final long PERMANENT = 0;
+	/** Expiration of nodes that only join other nodes, and result of lookups that match no ban. */
+	public static final long NOT_BANNED = -1;
+	
+	private static final int IPV4_SLOT_BITS = 16;
+	
+	/** IPv4 networks shorter than {@value #IPV4_SLOT_BITS} bits. */
+	private final Node _ipv4Root = new Node(0, 0, 0, NOT_BANNED);
+	/** IPv4 networks of {@value #IPV4_SLOT_BITS} bits or more, by their first bits. */
+	private final AtomicReferenceArray<Node> _ipv4Slots = new AtomicReferenceArray<>(1 << IPV4_SLOT_BITS);
+	private final Node _ipv6Root = new Node(0, 0, 0, NOT_BANNED);
+	private volatile int _size;
+	/** Bans with an end, by expiration. */
+	private final PriorityQueue<Expiry> _expirations = new PriorityQueue<>();
+	
+	/**
+	 * Bans a network, or extends the ban when the network is already banned: the later expiration is kept.
+	 * @param address the network address, 4 or 16 bytes
+	 * @param prefixLength the number of significant bits of the address
+	 * @param expiration time in milliseconds when the ban is over, {@link #PERMANENT} for no end
+	 * @return true if the network wasn't banned yet
+	 */
+	public synchronized boolean add(byte[] address, int prefixLength, long expiration)
+	{
+		checkPrefix(address, prefixLength);
+		final long hi = mask(high(address), prefixLength);
+		final long lo = mask(low(address), prefixLength - 64);
+		
+		Node root = root(address, hi, prefixLength);
+		if (root == null)
+		{
+			root = new Node(mask(hi, IPV4_SLOT_BITS), 0, IPV4_SLOT_BITS, NOT_BANNED);
+			_ipv4Slots.set(slot(hi), root);
+		}
+		Node node = root;
+		while (true)
+		{
+			// node is a prefix of the key
+			if (node._length == prefixLength)
+			{
+				final long current = node._expiration;
+				if (current == NOT_BANNED)
+				{
+					node._expiration = expiration;
+					schedule(root, node);
+					_size++;
+					return true;
+				}
+				if ((current != PERMANENT) && ((expiration == PERMANENT) || (expiration > current)))
+				{
+					node._expiration = expiration;
+					schedule(root, node);
+				}
+				return false;
+			}
+			
+			final int bit = bit(hi, lo, node._length);
+			final Node child = node.getChild(bit);
+			if (child == null)
+			{
+				final Node added = new Node(hi, lo, prefixLength, expiration);
+				node.setChild(bit, added);
+				schedule(root, added);
+				_size++;
+				return true;
+			}
+			
+			final int common = commonPrefix(hi, lo, child._hi, child._lo, Math.min(child._length, prefixLength));
+			if (common == child._length)
+			{
+				node = child;
+				continue;
+			}
+			
+			// the key diverges from the child or ends inside it, a node is inserted between them
+			final Node added = new Node(hi, lo, prefixLength, expiration);
+			final Node inserted;
+			if (common == prefixLength)
+			{
+				inserted = added;
+			}
+			else
+			{
+				inserted = new Node(mask(hi, common), mask(lo, common - 64), common, NOT_BANNED);
+				inserted.setChild(bit(hi, lo, common), added);
+			}
+			inserted.setChild(bit(child._hi, child._lo, common), child);
+			node.setChild(bit, inserted);
+			schedule(root, added);
+			_size++;
+			return true;
+		}
+	}
+	
+	private void schedule(Node root, Node node)
+	{
+		if (node._expiration != PERMANENT)
+		{
+			_expirations.add(new Expiry(root, node, node._expiration));
+		}
+	}
+	
+	/**
+	 * Lifts the ban of a network. Bans of networks including or included in it are kept.
+	 * @param address the network address, 4 or 16 bytes
+	 * @param prefixLength the number of significant bits of the address
+	 * @return true if the network was banned
+	 */
+	public synchronized boolean remove(byte[] address, int prefixLength)
+	{
+		checkPrefix(address, prefixLength);
+		final long hi = mask(high(address), prefixLength);
+		final Node root = root(address, hi, prefixLength);
+		return (root != null) && remove(root, hi, mask(low(address), prefixLength - 64), prefixLength);
+	}
+	
+	private boolean remove(Node root, long hi, long lo, int prefixLength)
+	{
+		Node grandParent = null;
+		Node parent = null;
+		Node node = root;
+		while (node._length < prefixLength)
+		{
+			final Node child = node.getChild(bit(hi, lo, node._length));
+			if ((child == null) || (child._length > prefixLength) || (commonPrefix(hi, lo, child._hi, child._lo, child._length) < child._length))
+			{
+				return false;
+			}
+			grandParent = parent;
+			parent = node;
+			node = child;
+		}
+		if (node._expiration == NOT_BANNED)
+		{
+			return false;
+		}
+		
+		node._expiration = NOT_BANNED;
+		_size--;
+		
+		// drop the nodes that no longer join anything, the root always stays
+		if (parent != null)
+		{
+			if (prune(parent, node) && (grandParent != null) && (parent._expiration == NOT_BANNED))
+			{
+				prune(grandParent, parent);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Replaces a node without ban by its only child, or unlinks it when it has none.
+	 * @param parent the parent of the node
+	 * @param node the node
+	 * @return true if the node was removed from the trie
+	 */
+	private static boolean prune(Node parent, Node node)
+	{
+		if (node._expiration != NOT_BANNED)
+		{
+			return false;
+		}
+		final Node zero = node._zero;
+		final Node one = node._one;
+		if ((zero != null) && (one != null))
+		{
+			return false;
+		}
+		parent.setChild(bit(node._hi, node._lo, parent._length), zero != null ? zero : one);
+		return true;
+	}
+	
+	/**
+	 * Looks up the bans matching an address, expired bans not swept yet are skipped.
+	 * @param address the address, 4 or 16 bytes
+	 * @param now the current time in milliseconds
+	 * @return the expiration of the shortest banned network including the address, {@link #NOT_BANNED} if there is none
+	 */
+	public long getExpiration(byte[] address, long now)
+	{
+		final long hi = high(address);
+		final long lo = low(address);
+		if (address.length != 4)
+		{
+			return getExpiration(_ipv6Root, hi, lo, 128, now);
+		}
+		
+		final long expiration = getExpiration(_ipv4Root, hi, lo, 32, now);
+		if (expiration != NOT_BANNED)
+		{
+			return expiration;
+		}
+		final Node slot = _ipv4Slots.get(slot(hi));
+		return slot == null ? NOT_BANNED : getExpiration(slot, hi, lo, 32, now);
+	}
+	
+	private long getExpiration(Node root, long hi, long lo, int length, long now)
+	{
+		Node node = root;
+		while (node != null)
+		{
+			if (commonPrefix(hi, lo, node._hi, node._lo, node._length) < node._length)
+			{
+				return NOT_BANNED;
+			}
+			
+			final long expiration = node._expiration;
+			if (expiration != NOT_BANNED)
+			{
+				if ((expiration == PERMANENT) || (expiration > now))
+				{
+					return expiration;
+				}
+			}
+			
+			if (node._length == length)
+			{
+				return NOT_BANNED;
+			}
+			node = node.getChild(bit(hi, lo, node._length));
+		}
+		return NOT_BANNED;
+	}
+	
+	/**
+	 * @param address the address, 4 or 16 bytes
+	 * @param now the current time in milliseconds
+	 * @return true if a network including the address is banned
+	 */
+	public boolean isBanned(byte[] address, long now)
+	{
+		return getExpiration(address, now) != NOT_BANNED;
+	}
+	
+	/**
+	 * Removes the bans over at the given time.
+	 * @param now the current time in milliseconds
+	 * @return the number of removed bans
+	 */
+	public synchronized int sweep(long now)
+	{
+		int removed = 0;
+		Expiry expiry;
+		while (((expiry = _expirations.peek()) != null) && (expiry._expiration <= now))
+		{
+			_expirations.poll();
+			// the ban may have been lifted or extended meanwhile, it has another entry then
+			if ((expiry._node._expiration == expiry._expiration) && remove(expiry._root, expiry._node._hi, expiry._node._lo, expiry._node._length))
+			{
+				removed++;
+			}
+		}
+		return removed;
+	}
+	
+	/**
+	 * Removes every ban.
+	 */
+	public synchronized void clear()
+	{
+		clear(_ipv4Root);
+		for (int i = 0; i < _ipv4Slots.length(); i++)
+		{
+			_ipv4Slots.set(i, null);
+		}
+		clear(_ipv6Root);
+		_expirations.clear();
+		_size = 0;
+	}
+	
+	private static void clear(Node root)
+	{
+		root._expiration = NOT_BANNED;
+		root._zero = null;
+		root._one = null;
+	}
+	
+	/**
+	 * @return the number of banned networks, including expired bans not swept yet
+	 */
+	public int size()
+	{
+		return _size;
+	}
+	
+	/**
+	 * Visits every ban, IPv4 networks first, in address order.<br>
+	 * Changes wait until the visit is over, so the visitor sees the bans at a single point in time.
+	 * @param visitor the visitor
+	 */
+	public synchronized void forEach(BanVisitor visitor)
+	{
+		visit(_ipv4Root, 4, visitor);
+		for (int i = 0; i < _ipv4Slots.length(); i++)
+		{
+			visit(_ipv4Slots.get(i), 4, visitor);
+		}
+		visit(_ipv6Root, 16, visitor);
+	}
+	
+	private static void visit(Node node, int addressLength, BanVisitor visitor)
+	{
+		if (node == null)
+		{
+			return;
+		}
+		
+		final long expiration = node._expiration;
+		if (expiration != NOT_BANNED)
+		{
+			final byte[] address = new byte[addressLength];
+			for (int i = 0; i < addressLength; i++)
+			{
+				address[i] = (byte) (i < 8 ? node._hi >>> (56 - (i * 8)) : node._lo >>> (120 - (i * 8)));
+			}
+			visitor.visit(address, node._length, expiration);
+		}
+		visit(node._zero, addressLength, visitor);
+		visit(node._one, addressLength, visitor);
+	}
+	
+	/**
+	 * Parses a banned network: an address or a CIDR network ({@code 10.0.0.0/8}, {@code 2001:db8::/32}).<br>
+	 * For compatibility with older ban files, IPv4 addresses without prefix length ending with zeros are networks: {@code 10.0.0.0} is {@code 10.0.0.0/8} and {@code 192.168.0.0} is {@code 192.168.0.0/16}.
+	 * @param network the network
+	 * @return the address bytes and the prefix length
+	 * @throws UnknownHostException if the address or the prefix length is invalid
+	 */
+	public static Network parse(String network) throws UnknownHostException
+	{
+		final int slash = network.indexOf('/');
+		final byte[] address = InetAddress.getByName(slash < 0 ? network : network.substring(0, slash)).getAddress();
+		int prefixLength = address.length * 8;
+		if (slash >= 0)
+		{
+			try
+			{
+				prefixLength = Integer.parseInt(network.substring(slash + 1).trim());
+			}
+			catch (NumberFormatException e)
+			{
+				throw new UnknownHostException("Invalid prefix length: " + network);
+			}
+			if ((prefixLength < 0) || (prefixLength > (address.length * 8)))
+			{
+				throw new UnknownHostException("Invalid prefix length: " + network);
+			}
+		}
+		else if (address.length == 4)
+		{
+			while ((prefixLength > 8) && (address[(prefixLength / 8) - 1] == 0))
+			{
+				prefixLength -= 8;
+			}
+		}
+		return new Network(address, prefixLength);
+	}
+	
+	/**
+	 * @param address the network address
+	 * @param prefixLength the prefix length
+	 * @return the network in CIDR notation
+	 */
+	public static String toString(byte[] address, int prefixLength)
+	{
+		try
+		{
+			return InetAddress.getByAddress(address).getHostAddress() + "/" + prefixLength;
+		}
+		catch (UnknownHostException e)
+		{
+			return "Invalid";
+		}
+	}
+	
+	/**
+	 * @param address the network address
+	 * @param hi the first 64 bits of the network
+	 * @param prefixLength the prefix length
+	 * @return the root of the trie holding the network, null if its IPv4 slot is empty
+	 */
+	private Node root(byte[] address, long hi, int prefixLength)
+	{
+		if (address.length != 4)
+		{
+			return _ipv6Root;
+		}
+		return prefixLength < IPV4_SLOT_BITS ? _ipv4Root : _ipv4Slots.get(slot(hi));
+	}
+	
+	private static int slot(long hi)
+	{
+		return (int) (hi >>> (64 - IPV4_SLOT_BITS));
+	}
+	
+	static void checkPrefix(byte[] address, int prefixLength)
+	{
+		if (((address.length != 4) && (address.length != 16)) || (prefixLength < 0) || (prefixLength > (address.length * 8)))
+		{
+			throw new IllegalArgumentException("Invalid network: " + address.length + " bytes /" + prefixLength);
+		}
+	}
+	
+	/**
+	 * @param address the address
+	 * @return the first 64 bits of the address, IPv4 addresses are in the upper half
+	 */
+	static long high(byte[] address)
+	{
+		long value = 0;
+		for (int i = 0; i < Math.min(8, address.length); i++)
+		{
+			value = (value << 8) | (address[i] & 0xFF);
+		}
+		return address.length == 4 ? value << 32 : value;
+	}
+	
+	/**
+	 * @param address the address
+	 * @return the last 64 bits of an IPv6 address, 0 for IPv4 addresses
+	 */
+	static long low(byte[] address)
+	{
+		long value = 0;
+		for (int i = 8; i < address.length; i++)
+		{
+			value = (value << 8) | (address[i] & 0xFF);
+		}
+		return value;
+	}
+	
+	/**
+	 * @param value 64 bits of an address
+	 * @param bits the number of bits to keep, from the most significant
+	 * @return the value with the other bits cleared
+	 */
+	static long mask(long value, int bits)
+	{
+		if (bits <= 0)
+		{
+			return 0;
+		}
+		return bits >= 64 ? value : value & (-1L << (64 - bits));
+	}
+	
+	private static int bit(long hi, long lo, int index)
+	{
+		return (int) (index < 64 ? (hi >>> (63 - index)) & 1 : (lo >>> (127 - index)) & 1);
+	}
+	
+	/**
+	 * @return the number of leading bits both keys have in common, at most {@code max}
+	 */
+	private static int commonPrefix(long hi1, long lo1, long hi2, long lo2, int max)
+	{
+		final long hi = hi1 ^ hi2;
+		if (hi != 0)
+		{
+			return Math.min(Long.numberOfLeadingZeros(hi), max);
+		}
+		return Math.min(64 + Long.numberOfLeadingZeros(lo1 ^ lo2), max);
+	}
+	
+	private static final class Node
+	{
+		protected final long _hi;
+		protected final long _lo;
+		protected final int _length;
+		protected volatile long _expiration;
+		protected volatile Node _zero;
+		protected volatile Node _one;
+		
+		public Node(long hi, long lo, int length, long expiration)
+		{
+			_hi = hi;
+			_lo = lo;
+			_length = length;
+			_expiration = expiration;
+		}
+		
+		public Node getChild(int bit)
+		{
+			return bit == 0 ? _zero : _one;
+		}
+		
+		public void setChild(int bit, Node child)
+		{
+			if (bit == 0)
+			{
+				_zero = child;
+			}
+			else
+			{
+				_one = child;
+			}
+		}
+	}
+	
+	/**
+	 * Entry of the expiration queue.
+	 */
+	private static final class Expiry implements Comparable<Expiry>
+	{
+		protected final Node _root;
+		protected final Node _node;
+		protected final long _expiration;
+		
+		public Expiry(Node root, Node node, long expiration)
+		{
+			_root = root;
+			_node = node;
+			_expiration = expiration;
+		}
+		
+		@Override
+		public int compareTo(Expiry other)
+		{
+			return Long.compare(_expiration, other._expiration);
+		}
+	}
+	
+	/**
+	 * A parsed network.
+	 */
+	public static final class Network
+	{
+		private final byte[] _address;
+		private final int _prefixLength;
+		
+		public Network(byte[] address, int prefixLength)
+		{
+			_address = address;
+			_prefixLength = prefixLength;
+		}
+		
+		public byte[] getAddress()
+		{
+			return _address;
+		}
+		
+		public int getPrefixLength()
+		{
+			return _prefixLength;
+		}
+		
+		@Override
+		public String toString()
+		{
+			return IPBanTrie.toString(_address, _prefixLength);
+		}
+	}
+	
+	@FunctionalInterface
+	public static interface BanVisitor
+	{
+		/**
+		 * @param address the network address
+		 * @param prefixLength the prefix length
+		 * @param expiration time in milliseconds when the ban is over, {@link IPBanTrie#PERMANENT} for no end
+		 */
+		void visit(byte[] address, int prefixLength, long expiration);
+	}
+}
@@ -20,125 +20,281 @@ package com.l2jserver.util.network;
 
 import java.net.InetAddress;
 import java.nio.channels.SocketChannel;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.l2jserver.mmocore.IAcceptFilter;
 
 /**
- * IPv4 filter.
+ * Connection filter with a token bucket and a connection limit per address.<br>
+ * Each accepted connection takes a token from the bucket of its address, the bucket holds up to {@code burst} tokens and gets {@code rate} tokens back per second. The bucket is kept as the time it will be full again, so the whole state of an address, with its open connections, fits in one long updated by CAS.<br>
+ * Addresses are kept in a fixed size open addressing table of primitive keys, IPv6 clients are grouped by /64 network. There is no cleanup thread: an address whose bucket is full again and has no connection is in the same state as an unknown one, so its slot is taken over by the next new address probing it.<br>
+ * When none of the slots probed for a new address is idle, the address without connection whose bucket fills up first is forgotten, so during a flood of new addresses the ones that used up their bucket stay tracked. Only when every probed address has open connections is the new one let through without limit rather than refused.
  * @author Forsaiken
  */
-public class IPv4Filter implements IAcceptFilter, Runnable
+public class IPv4Filter implements IAcceptFilter
 {
-	private final HashMap<Integer, Flood> _ipFloodMap;
-	private static final long SLEEP_TIME = 5000;
+	/** Slots probed for an address before giving up. */
+	private static final int MAX_PROBES = 16;
+	private static final int CONNECTION_BITS = 16;
+	private static final long CONNECTION_MASK = (1L << CONNECTION_BITS) - 1;
+	/** State of a slot being taken over by another address. */
+	private static final long LOCKED = -1;
+	/** Key marker of IPv4 addresses, the upper bits of an IPv6 /64 never have this value for a client (multicast range). */
+	private static final long IPV4_KEY = 0xFFFFFFFF00000000L;
 	
-	public IPv4Filter()
-	{
-		_ipFloodMap = new HashMap<>();
-		Thread t = new Thread(this, getClass().getSimpleName());
-		t.setDaemon(true);
-		t.start();
-	}
+	private final int _mask;
+	/** Address keys, 0 for never used slots. Slots are never emptied, only taken over, so probe chains stay intact. */
+	private final AtomicLongArray _keys;
+	/** Time in milliseconds the bucket will be full again, shifted, and the number of open connections. */
+	private final AtomicLongArray _states;
+	
+	private final long _interval;
+	private final long _tolerance;
+	private final int _maxConnections;
+	private final long _start = System.nanoTime();
+	
+	private final LongAdder _accepted = new LongAdder();
+	private final LongAdder _refusedRate = new LongAdder();
+	private final LongAdder _refusedConnections = new LongAdder();
+	private final LongAdder _evicted = new LongAdder();
+	private final LongAdder _untracked = new LongAdder();
 	
 	/**
-	 * @param ip
-	 * @return
+	 * @param burst the number of connections an address can open at once
+	 * @param rate the number of connections per second an address can open afterwards, positive
+	 * @param maxConnections the maximum number of open connections per address, 0 for no limit but the {@value #CONNECTION_BITS} bits they are counted on
+	 * @param size the number of addresses tracked at the same time, rounded up to a power of two
 	 */
-	private static final int hash(byte[] ip)
-	{
-		return (ip[0] & 0xFF) | ((ip[1] << 8) & 0xFF00) | ((ip[2] << 16) & 0xFF0000) | ((ip[3] << 24) & 0xFF000000);
-	}
-	
-	protected static final class Flood
+	public IPv4Filter(int burst, double rate, int maxConnections, int size)
 	{
-		long lastAccess;
-		int trys;
-		
-		Flood()
+		if (!(rate > 0))
 		{
-			lastAccess = System.currentTimeMillis();
-			trys = 0;
+			throw new IllegalArgumentException("Invalid accept rate: " + rate);
 		}
+		
+		final int capacity = Integer.highestOneBit(Math.max(MAX_PROBES, size) - 1) << 1;
+		_mask = capacity - 1;
+		_keys = new AtomicLongArray(capacity);
+		_states = new AtomicLongArray(capacity);
+		_interval = Math.max(1, Math.round(1000 / rate));
+		_tolerance = Math.max(0, burst - 1) * _interval;
+		// the count must never carry into the time bits
+		_maxConnections = (int) (maxConnections > 0 ? Math.min(maxConnections, CONNECTION_MASK) : CONNECTION_MASK);
 	}
 	
 	@Override
 	public boolean accept(SocketChannel sc)
 	{
-		InetAddress addr = sc.socket().getInetAddress();
-		int h = hash(addr.getAddress());
-		
-		long current = System.currentTimeMillis();
-		Flood f;
-		synchronized (_ipFloodMap)
-		{
-			f = _ipFloodMap.get(h);
-		}
-		if (f != null)
+		return accept(sc.socket().getInetAddress());
+	}
+	
+	/**
+	 * Takes a token and a connection slot for the address.
+	 * @param address the client address
+	 * @return true if the connection is accepted, {@link #release(InetAddress)} must be called once it is closed
+	 */
+	public boolean accept(InetAddress address)
+	{
+		final long key = key(address.getAddress());
+		while (true)
 		{
-			if (f.trys == -1)
-			{
-				f.lastAccess = current;
-				return false;
-			}
-			
-			if ((f.lastAccess + 1000) > current)
+			final long now = now();
+			int index = home(key);
+			int reclaim = -1;
+			long reclaimState = 0;
+			int evict = -1;
+			long evictState = Long.MAX_VALUE;
+			for (int probe = 0; probe < MAX_PROBES; probe++, index = (index + 1) & _mask)
 			{
-				f.lastAccess = current;
+				// the state is read first, a slot taken over after that has a different state and the CAS fails
+				final long state = _states.get(index);
+				final long slotKey = _keys.get(index);
+				if (slotKey == key)
+				{
+					if (state == LOCKED)
+					{
+						break;
+					}
+					final int result = tryAcquire(index, state, now);
+					if (result > 0)
+					{
+						_accepted.increment();
+						return true;
+					}
+					if (result < 0)
+					{
+						return false;
+					}
+					// lost a race, look again
+					break;
+				}
 				
-				if (f.trys >= 3)
+				if (slotKey == 0)
 				{
-					f.trys = -1;
-					return false;
+					// unknown address
+					if (reclaim >= 0)
+					{
+						takeOver(reclaim, reclaimState, key);
+					}
+					else
+					{
+						_keys.compareAndSet(index, 0, key);
+					}
+					break;
 				}
 				
-				f.trys++;
-			}
-			else
-			{
-				f.lastAccess = current;
-			}
-		}
-		else
-		{
-			synchronized (_ipFloodMap)
-			{
-				_ipFloodMap.put(h, new Flood());
+				if ((state != LOCKED) && ((state & CONNECTION_MASK) == 0))
+				{
+					if ((reclaim < 0) && isIdle(state, now))
+					{
+						reclaim = index;
+						reclaimState = state;
+					}
+					else if (state < evictState)
+					{
+						// without connections the state is the time the bucket is full again
+						evict = index;
+						evictState = state;
+					}
+				}
+				
+				if (probe == (MAX_PROBES - 1))
+				{
+					if (reclaim >= 0)
+					{
+						takeOver(reclaim, reclaimState, key);
+						break;
+					}
+					if (evict >= 0)
+					{
+						_evicted.increment();
+						takeOver(evict, evictState, key);
+						break;
+					}
+					// table full around this address
+					_untracked.increment();
+					_accepted.increment();
+					return true;
+				}
 			}
 		}
-		
-		return true;
 	}
 	
-	@Override
-	public void run()
+	/**
+	 * Gives back the connection slot taken by {@link #accept(InetAddress)}.
+	 * @param address the client address
+	 */
+	public void release(InetAddress address)
 	{
-		while (true)
+		final long key = key(address.getAddress());
+		int index = home(key);
+		for (int probe = 0; probe < MAX_PROBES; probe++, index = (index + 1) & _mask)
 		{
-			long reference = System.currentTimeMillis() - (1000 * 300);
-			synchronized (_ipFloodMap)
+			while (true)
 			{
-				Iterator<Entry<Integer, Flood>> it = _ipFloodMap.entrySet().iterator();
-				while (it.hasNext())
+				final long state = _states.get(index);
+				final long slotKey = _keys.get(index);
+				if ((slotKey != key) || (state == LOCKED) || ((state & CONNECTION_MASK) == 0))
 				{
-					Flood f = it.next().getValue();
-					if (f.lastAccess < reference)
-					{
-						it.remove();
-					}
+					// not this slot, or a duplicate left by a race that doesn't hold the connection
+					break;
+				}
+				if (_states.compareAndSet(index, state, state - 1))
+				{
+					return;
 				}
 			}
-			
-			try
-			{
-				Thread.sleep(SLEEP_TIME);
-			}
-			catch (InterruptedException e)
+			if (_keys.get(index) == 0)
 			{
+				// not tracked, the table was full when it was accepted
 				return;
 			}
 		}
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * @return 1 if accepted, -1 if refused, 0 if the state changed meanwhile
+	 */
+	private int tryAcquire(int index, long state, long now)
+	{
+		final long connections = state & CONNECTION_MASK;
+		if (connections >= _maxConnections)
+		{
+			_refusedConnections.increment();
+			return -1;
+		}
+		
+		final long full = Math.max(state >>> CONNECTION_BITS, now);
+		if ((full - now) > _tolerance)
+		{
+			// bucket empty
+			_refusedRate.increment();
+			return -1;
+		}
+		return _states.compareAndSet(index, state, ((full + _interval) << CONNECTION_BITS) | (connections + 1)) ? 1 : 0;
+	}
+	
+	/**
+	 * Gives a slot without connections to another address, the caller looks the address up again to take its token.
+	 */
+	private void takeOver(int index, long idleState, long key)
+	{
+		if (_states.compareAndSet(index, idleState, LOCKED))
+		{
+			_keys.set(index, key);
+			// a full bucket without connections
+			_states.set(index, 0);
+		}
+	}
+	
+	private static boolean isIdle(long state, long now)
+	{
+		return ((state & CONNECTION_MASK) == 0) && ((state >>> CONNECTION_BITS) <= now);
+	}
+	
+	/**
+	 * @return the time in milliseconds since the filter was created
+	 */
+	private long now()
+	{
+		return (System.nanoTime() - _start) / 1000000;
+	}
+	
+	private int home(long key)
+	{
+		// murmur3 finalizer, spreads sequential addresses over the table
+		long h = key;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (int) h & _mask;
+	}
+	
+	/**
+	 * @param address the raw address
+	 * @return the IPv4 address with a marker in the upper bits, or the /64 network of an IPv6 address
+	 */
+	private static long key(byte[] address)
+	{
+		long key = 0;
+		for (int i = 0; i < Math.min(8, address.length); i++)
+		{
+			key = (key << 8) | (address[i] & 0xFF);
+		}
+		if (address.length == 4)
+		{
+			return IPV4_KEY | key;
+		}
+		// 0 marks unused slots, ::/64 (loopback) is moved to the unused 0:0:0:1::/64
+		return key == 0 ? 1 : key;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "Accept filter: accepted " + _accepted.sum() + ", refused by rate " + _refusedRate.sum() + ", by connections " + _refusedConnections.sum() + ", forgotten early " + _evicted.sum() + ", untracked (table full) " + _untracked.sum();
+	}
+}